@@ -0,0 +1,143 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.aliyun.oss.service.OssService;
+import org.elasticsearch.aliyun.oss.service.OssServiceImpl;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Measures the reads, writes and deletes of a blob container against {@link MockOssService}, which leaves
+ * only the cost of the plugin, or against {@link OssHttpFixture}, which adds the OSS client and HTTP over
+ * the loopback interface. Thread counts are compared by running with {@code -t}, and the latency of a
+ * remote OSS is emulated with {@code -p latencyMillis=...} on the http backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BlobContainerBenchmark {
+
+    /**
+     * Blobs read by the read benchmark, and written over and over by each thread of the write benchmarks
+     */
+    private static final int BLOBS = 4;
+
+    @Param({"mock", "http"})
+    public String backend;
+
+    @Param({"1024", "1048576", "16777216"})
+    public int blobSize;
+
+    /**
+     * Latency the fixture adds to every request of the http backend
+     */
+    @Param({"0"})
+    public long latencyMillis;
+
+    private OssHttpFixture fixture;
+    private OssBlobStore blobStore;
+    private BlobContainer container;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Settings settings;
+        final OssService service;
+        if ("http".equals(backend)) {
+            fixture = new OssHttpFixture();
+            fixture.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+            settings = fixture.clientSettings().build();
+            service = new OssServiceImpl(new RepositoryMetaData("benchmark", "oss", settings));
+        } else {
+            settings = Settings.EMPTY;
+            service = new MockOssService();
+        }
+        blobStore = new OssBlobStore("benchmark", service, settings);
+        container = blobStore.blobContainer(new BlobPath().add("benchmark"));
+        content = new byte[blobSize];
+        new Random(0).nextBytes(content);
+        for (int i = 0; i < BLOBS; i++) {
+            write("read-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        blobStore.close();
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    /**
+     * Names of the blobs of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Blobs {
+        private String prefix;
+        private int next;
+        private final byte[] readBuffer = new byte[64 * 1024];
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            prefix = "thread-" + threadParams.getThreadIndex() + "-";
+        }
+
+        String next() {
+            return prefix + (next++ % BLOBS);
+        }
+    }
+
+    @Benchmark
+    public long read(Blobs blobs) throws IOException {
+        long total = 0;
+        try (InputStream stream = container.readBlob("read-" + (blobs.next++ % BLOBS))) {
+            for (int read; (read = stream.read(blobs.readBuffer)) != -1; ) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void write(Blobs blobs) throws IOException {
+        write(blobs.next());
+    }
+
+    /**
+     * Writes a blob and deletes it, the cost of the delete is the difference with {@link #write(Blobs)}
+     */
+    @Benchmark
+    public void writeAndDelete(Blobs blobs) throws IOException {
+        String blobName = blobs.next();
+        write(blobName);
+        container.deleteBlob(blobName);
+    }
+
+    private void write(String blobName) throws IOException {
+        container.writeBlob(blobName, new ByteArrayInputStream(content), content.length, false);
+    }
+}
@@ -0,0 +1,138 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import org.elasticsearch.aliyun.oss.service.OssService;
+import org.elasticsearch.aliyun.oss.service.OssServiceImpl;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the listing of a blob container. With the {@code pages} backend the listing pages are built
+ * up front, so only their conversion to {@link BlobMetaData} is measured. The {@code mock} and {@code http}
+ * backends also list the blobs from {@link MockOssService} or {@link OssHttpFixture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"pages", "mock", "http"})
+    public String backend;
+
+    @Param({"100", "1000", "10000"})
+    public int blobCount;
+
+    private OssHttpFixture fixture;
+    private OssBlobStore blobStore;
+    private OssBlobContainer container;
+
+    @Setup
+    public void setUp() throws Exception {
+        final BlobPath path = new BlobPath().add("indices").add("shard");
+        final Settings settings;
+        final OssService service;
+        if ("http".equals(backend)) {
+            fixture = new OssHttpFixture();
+            settings = fixture.clientSettings().build();
+            service = new OssServiceImpl(new RepositoryMetaData("benchmark", "oss", settings));
+        } else if ("mock".equals(backend)) {
+            settings = Settings.EMPTY;
+            service = new MockOssService();
+        } else {
+            settings = Settings.EMPTY;
+            service = new ListingPagesService(path.buildAsString(), blobCount);
+        }
+        blobStore = new OssBlobStore("benchmark", service, settings);
+        container = (OssBlobContainer)blobStore.blobContainer(path);
+        if (!"pages".equals(backend)) {
+            for (int i = 0; i < blobCount; i++) {
+                container.writeBlob(blobName(i), new ByteArrayInputStream(new byte[0]), 0, false);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        blobStore.close();
+        if (fixture != null) {
+            fixture.close();
+        }
+    }
+
+    @Benchmark
+    public Map<String, BlobMetaData> listBlobs() throws IOException {
+        return container.listBlobs();
+    }
+
+    @Benchmark
+    public long forEachBlob() throws IOException {
+        final long[] total = new long[1];
+        container.forEachBlobByPrefix(null, blob -> total[0] += blob.length());
+        return total[0];
+    }
+
+    private static String blobName(int i) {
+        return String.format(Locale.ROOT, "__%08d", i);
+    }
+
+    /**
+     * Returns listing pages of {@link OssBlobStore#LIST_MAX_KEYS} blobs built once, by marker
+     */
+    private static class ListingPagesService extends MockOssService {
+        private final Map<String, ObjectListing> pages = new HashMap<>();
+
+        ListingPagesService(String keyPath, int blobCount) {
+            String marker = null;
+            for (int start = 0; start < blobCount; start += OssBlobStore.LIST_MAX_KEYS) {
+                ObjectListing page = new ObjectListing();
+                int end = Math.min(blobCount, start + OssBlobStore.LIST_MAX_KEYS);
+                for (int i = start; i < end; i++) {
+                    OSSObjectSummary summary = new OSSObjectSummary();
+                    summary.setBucketName("benchmark");
+                    summary.setKey(keyPath + blobName(i));
+                    summary.setSize(i);
+                    summary.setETag(Integer.toHexString(i));
+                    summary.setLastModified(new Date());
+                    page.addObjectSummary(summary);
+                }
+                page.setTruncated(end < blobCount);
+                page.setNextMarker(keyPath + blobName(end - 1));
+                pages.put(marker, page);
+                marker = page.getNextMarker();
+            }
+            pages.putIfAbsent(null, new ObjectListing());
+        }
+
+        @Override
+        public ObjectListing listObjects(ListObjectsRequest request) {
+            return pages.get(request.getMarker());
+        }
+    }
+}
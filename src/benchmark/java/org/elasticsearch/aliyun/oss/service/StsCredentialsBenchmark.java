@@ -0,0 +1,71 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.concurrent.TimeUnit;
+
+import com.aliyun.oss.common.auth.Credentials;
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import com.aliyun.oss.common.auth.DefaultCredentials;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast request threads get the credentials to sign their requests from the credentials provider
+ * of an {@link OssStorageClient}, while the {@link StsCredentialsRefresher} swaps renewed STS credentials in
+ * as fast as it can, and without any renewal for comparison. The number of threads of each role is set with
+ * {@code -tg}, for example {@code -tg 31,1}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StsCredentialsBenchmark {
+
+    private final Credentials[] tokens = new Credentials[] {
+        new DefaultCredentials("id-1", "secret-1", "token-1"),
+        new DefaultCredentials("id-2", "secret-2", "token-2")
+    };
+    private DefaultCredentialProvider credentialsProvider;
+    private int nextToken;
+
+    @Setup
+    public void setUp() {
+        credentialsProvider = new DefaultCredentialProvider(tokens[0]);
+    }
+
+    @Benchmark
+    @Group("rotating")
+    @GroupThreads(7)
+    public void signWhileRotating(Blackhole blackhole) {
+        sign(blackhole);
+    }
+
+    @Benchmark
+    @Group("rotating")
+    @GroupThreads(1)
+    public void rotate() {
+        credentialsProvider.setCredentials(tokens[nextToken++ & 1]);
+    }
+
+    @Benchmark
+    @Group("steady")
+    @GroupThreads(8)
+    public void sign(Blackhole blackhole) {
+        Credentials credentials = credentialsProvider.getCredentials();
+        blackhole.consume(credentials.getAccessKeyId());
+        blackhole.consume(credentials.getSecretAccessKey());
+        blackhole.consume(credentials.getSecurityToken());
+    }
+}
@@ -0,0 +1,169 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
+
+/**
+ * Looks up the existence and size of many blobs of a container at once. The names are sorted and the keys
+ * between the first and the last one are listed, since OSS lists keys in order: each page answers for every
+ * name it goes past, and the listing stops after the last name. Once a page answers for fewer than
+ * {@link #MIN_NAMES_PER_PAGE} names, the names are too sparse among the keys for listing to pay off and the
+ * remaining ones are looked up with HEAD requests, up to {@code concurrency} at a time. Names containing the
+ * delimiter are always looked up with HEAD requests, since listing a container groups them.
+ */
+class BlobLookup {
+
+    /**
+     * Fewest names a listing page must answer for to list the next page rather than send HEAD requests
+     */
+    static final int MIN_NAMES_PER_PAGE = 8;
+
+    private final OssBlobStore blobStore;
+    private final int concurrency;
+
+    BlobLookup(OssBlobStore blobStore, int concurrency) {
+        this.blobStore = blobStore;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param keyPath   path of the container
+     * @param blobNames names of the blobs, relative to the path
+     * @return metadata of the blobs that exist by name, missing blobs are left out
+     */
+    Map<String, BlobMetaData> lookup(String keyPath, Collection<String> blobNames) throws IOException {
+        final Map<String, BlobMetaData> found = new ConcurrentHashMap<>();
+        final NavigableSet<String> listed = new TreeSet<>();
+        final List<String> headed = new ArrayList<>();
+        for (String blobName : blobNames) {
+            if (blobName.contains(OssBlobStore.DELIMITER)) {
+                headed.add(blobName);
+            } else {
+                listed.add(blobName);
+            }
+        }
+        if (listed.size() >= MIN_NAMES_PER_PAGE) {
+            list(keyPath, listed, found);
+        }
+        headed.addAll(listed);
+        head(keyPath, headed, found);
+        return found;
+    }
+
+    /**
+     * Lists the keys from the first name on, removing the names it answers for from {@code names}
+     */
+    private void list(String keyPath, NavigableSet<String> names, Map<String, BlobMetaData> found)
+        throws IOException {
+        final String prefix = keyPath + commonPrefix(names.first(), names.last());
+        final String firstKey = keyPath + names.first();
+        // keys are listed after the marker, which is just before the first name
+        String marker = firstKey.substring(0, firstKey.length() - 1);
+        while (names.isEmpty() == false) {
+            ObjectListing page = blobStore.listBlobs(prefix, marker, OssBlobStore.DELIMITER);
+            final int before = names.size();
+            for (OSSObjectSummary summary : page.getObjectSummaries()) {
+                final String blobName = summary.getKey().substring(keyPath.length());
+                // the names before this key are missing
+                while (names.isEmpty() == false && names.first().compareTo(blobName) < 0) {
+                    names.pollFirst();
+                }
+                if (names.isEmpty()) {
+                    return;
+                }
+                if (names.first().equals(blobName)) {
+                    found.put(blobName, new PlainBlobMetaData(blobName, summary.getSize()));
+                    names.pollFirst();
+                }
+            }
+            if (page.isTruncated() == false) {
+                names.clear();
+                return;
+            }
+            if (before - names.size() < MIN_NAMES_PER_PAGE) {
+                return;
+            }
+            marker = page.getNextMarker();
+        }
+    }
+
+    private void head(String keyPath, List<String> names, Map<String, BlobMetaData> found) throws IOException {
+        if (names.isEmpty()) {
+            return;
+        }
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final List<CompletableFuture<?>> lookups = new ArrayList<>(names.size());
+        final List<Exception> failures = new ArrayList<>();
+        try {
+            for (String blobName : names) {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for a lookup slot");
+                }
+                lookups.add(blobStore.getObjectMetadataAsync(keyPath + blobName).handle((metadata, t) -> {
+                    try {
+                        if (t == null) {
+                            found.put(blobName, new PlainBlobMetaData(blobName, metadata.getContentLength()));
+                            return null;
+                        }
+                        Exception e = OssBlobStore.unwrapCompletion(t);
+                        if (e instanceof OSSException
+                            && OSSErrorCode.NO_SUCH_KEY.equals(((OSSException)e).getErrorCode())) {
+                            return null;
+                        }
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                        return null;
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (CompletableFuture<?> lookup : lookups) {
+                OssBlobStore.await(lookup);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (CompletableFuture<?> lookup : lookups) {
+                lookup.cancel(true);
+            }
+            throw e;
+        }
+        synchronized (failures) {
+            if (failures.isEmpty() == false) {
+                IOException e = new IOException("failed to look up [" + failures.size() + "] of [" + names.size()
+                    + "] blobs under [" + keyPath + "]", failures.get(0));
+                for (Exception failure : failures.subList(1, failures.size())) {
+                    e.addSuppressed(failure);
+                }
+                throw e;
+            }
+        }
+    }
+
+    static String commonPrefix(String first, String last) {
+        int length = 0;
+        while (length < first.length() && length < last.length() && first.charAt(length) == last.charAt(length)) {
+            length++;
+        }
+        return first.substring(0, length);
+    }
+}
@@ -0,0 +1,182 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.store.GrowableByteArrayDataOutput;
+import org.elasticsearch.common.io.Streams;
+
+/**
+ * Compresses a stream with LZ4 in independent blocks, up to {@code concurrency} blocks at the same time on the
+ * given executor, and returns the compressed blocks in order. Each block is written as its raw length, a codec
+ * byte, its stored length and the stored bytes. Blocks that do not get smaller are stored raw. A raw length of
+ * zero ends the stream.
+ */
+class BlockCompressingInputStream extends InputStream {
+
+    /**
+     * Name of the format, recorded in the user metadata of compressed blobs
+     */
+    static final String CODEC = "lz4-block";
+    /**
+     * User metadata key of the codec of a compressed blob
+     */
+    static final String CODEC_METADATA_KEY = "es-codec";
+    static final int BLOCK_SIZE = 1024 * 1024;
+    static final byte RAW = 0;
+    static final byte LZ4 = 1;
+    /**
+     * Largest header of a block, a codec byte and two variable length ints
+     */
+    private static final int MAX_HEADER_SIZE = 1 + 5 + 5;
+
+    private final InputStream in;
+    private long remainingRawLength;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] current;
+    private int position;
+    private boolean endWritten;
+    /**
+     * Compressed bytes returned or being returned, including those of the current block
+     */
+    private long compressedLength;
+
+    /**
+     * @param firstBlock         the first block, already compressed by {@link #compressBlock(byte[], int)}
+     * @param in                 the rest of the stream to compress, which is not closed by this stream
+     * @param remainingRawLength number of bytes the rest of the stream must hold
+     * @param executor           runs the compression of the blocks
+     * @param concurrency        number of blocks compressed at the same time
+     */
+    BlockCompressingInputStream(byte[] firstBlock, InputStream in, long remainingRawLength, ExecutorService executor,
+        int concurrency) {
+        this.in = in;
+        this.remainingRawLength = remainingRawLength;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.current = firstBlock;
+        this.compressedLength = firstBlock.length;
+    }
+
+    /**
+     * Returns the largest size a stream of the given size can be compressed to, as blocks are never stored larger
+     * than they are
+     */
+    static long maxCompressedLength(long rawLength) {
+        long blocks = (rawLength + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return rawLength + blocks * MAX_HEADER_SIZE + 1;
+    }
+
+    /**
+     * Compresses a block, storing it raw if it does not get smaller
+     *
+     * @param block  content of the block
+     * @param length length of the block
+     * @return the block with its header
+     */
+    static byte[] compressBlock(byte[] block, int length) throws IOException {
+        GrowableByteArrayDataOutput output = new GrowableByteArrayDataOutput(length / 2 + MAX_HEADER_SIZE);
+        output.writeVInt(length);
+        GrowableByteArrayDataOutput compressed = new GrowableByteArrayDataOutput(length / 2);
+        try (Compressor compressor = CompressionMode.FAST.newCompressor()) {
+            compressor.compress(block, 0, length, compressed);
+        }
+        if (compressed.getPosition() < length) {
+            output.writeByte(LZ4);
+            output.writeVInt(compressed.getPosition());
+            output.writeBytes(compressed.getBytes(), 0, compressed.getPosition());
+        } else {
+            output.writeByte(RAW);
+            output.writeVInt(length);
+            output.writeBytes(block, 0, length);
+        }
+        return Arrays.copyOf(output.getBytes(), output.getPosition());
+    }
+
+    /**
+     * Reads blocks and submits their compression until {@code concurrency} blocks are pending
+     */
+    private void fill() throws IOException {
+        while (remainingRawLength > 0 && pending.size() < concurrency) {
+            final int length = (int)Math.min(BLOCK_SIZE, remainingRawLength);
+            final byte[] block = new byte[length];
+            if (Streams.readFully(in, block, 0, length) != length) {
+                throw new IOException("unexpected end of stream, [" + remainingRawLength + "] bytes missing");
+            }
+            remainingRawLength -= length;
+            pending.add(executor.submit(() -> compressBlock(block, length)));
+        }
+    }
+
+    /**
+     * Moves to the next compressed block
+     *
+     * @return false once the end of the stream was returned
+     */
+    private boolean nextBlock() throws IOException {
+        while (current == null || position == current.length) {
+            fill();
+            Future<byte[]> next = pending.poll();
+            if (next != null) {
+                current = OssBlobStore.await(next);
+            } else if (!endWritten) {
+                endWritten = true;
+                current = new byte[]{0};
+            } else {
+                return false;
+            }
+            position = 0;
+            compressedLength += current.length;
+        }
+        return true;
+    }
+
+    /**
+     * @return length of the compressed stream, once it has been read entirely
+     */
+    long getCompressedLength() {
+        return compressedLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int read = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    /**
+     * Cancels the compression of the pending blocks
+     */
+    @Override
+    public void close() {
+        for (Future<byte[]> block : pending) {
+            block.cancel(true);
+        }
+        pending.clear();
+    }
+}
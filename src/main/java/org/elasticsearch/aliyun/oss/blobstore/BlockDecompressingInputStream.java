@@ -0,0 +1,96 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.io.Streams;
+
+/**
+ * Decompresses a stream written by {@link BlockCompressingInputStream}, one block at a time.
+ */
+class BlockDecompressingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final InputStreamDataInput dataInput;
+    private final Decompressor decompressor = CompressionMode.FAST.newDecompressor();
+    private final BytesRef decompressed = new BytesRef();
+    private BytesRef block = new BytesRef();
+    private byte[] stored = new byte[0];
+    private int position;
+    private boolean ended;
+
+    BlockDecompressingInputStream(InputStream in) {
+        this.in = in;
+        this.dataInput = new InputStreamDataInput(in);
+    }
+
+    /**
+     * Decompresses the next block
+     *
+     * @return false at the end of the stream
+     */
+    private boolean nextBlock() throws IOException {
+        while (position == block.length) {
+            if (ended) {
+                return false;
+            }
+            final int rawLength = dataInput.readVInt();
+            if (rawLength == 0) {
+                ended = true;
+                return false;
+            }
+            final byte codec = dataInput.readByte();
+            final int storedLength = dataInput.readVInt();
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            if (Streams.readFully(in, stored, 0, storedLength) != storedLength) {
+                throw new EOFException("compressed block of [" + storedLength + "] bytes ended early");
+            }
+            if (codec == BlockCompressingInputStream.LZ4) {
+                decompressor.decompress(new ByteArrayDataInput(stored, 0, storedLength), rawLength, 0, rawLength,
+                    decompressed);
+                block = decompressed;
+            } else if (codec == BlockCompressingInputStream.RAW && storedLength == rawLength) {
+                block = new BytesRef(stored, 0, rawLength);
+            } else {
+                throw new IOException("unknown compressed block codec [" + codec + "]");
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return block.bytes[block.offset + position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int read = Math.min(len, block.length - position);
+        System.arraycopy(block.bytes, block.offset + position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,137 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Deletes keys in {@link DeleteObjectsRequest} batches of up to 1000 keys while the caller keeps
+ * adding keys. Batches are sent with the asynchronous client of the blob store, so no thread waits for them.
+ * Up to {@code concurrency} batches are deleted at the same time, so at most {@code concurrency + 1} batches
+ * of keys are held in memory. Batches are verbose, so OSS lists the keys it deleted: keys of failed
+ * batches, and keys a batch did not list as deleted, are collected and reported by {@link #finish()}.
+ */
+class BulkDeleter implements Closeable {
+    private static final Logger logger = LogManager.getLogger(BulkDeleter.class);
+
+    /**
+     * Number of failed keys and batch failures reported in the exception thrown by {@link #finish()}
+     */
+    private static final int MAX_REPORTED_KEYS = 10;
+
+    private final OssBlobStore blobStore;
+    private final Semaphore inFlight;
+    private final List<CompletableFuture<?>> batches = new ArrayList<>();
+    private final List<String> failedKeys = Collections.synchronizedList(new ArrayList<>());
+    private final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+    private List<String> currentBatch = new ArrayList<>();
+    private long submittedKeys;
+
+    BulkDeleter(OssBlobStore blobStore, int concurrency) {
+        this.blobStore = blobStore;
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    /**
+     * Adds a key to delete, sending the current batch once it is full. Blocks while
+     * {@code concurrency} batches are in flight.
+     *
+     * @param key full key of the blob
+     */
+    void add(String key) throws IOException {
+        currentBatch.add(key);
+        if (currentBatch.size() >= DeleteObjectsRequest.DELETE_OBJECTS_ONETIME_LIMIT) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (currentBatch.isEmpty()) {
+            return;
+        }
+        final List<String> keys = currentBatch;
+        currentBatch = new ArrayList<>();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a delete slot");
+        }
+        submittedKeys += keys.size();
+        final CompletableFuture<DeleteObjectsResult> batch;
+        try {
+            batch = blobStore.deleteObjectsAsync(
+                new DeleteObjectsRequest(blobStore.getBucket()).withKeys(keys).withQuiet(false));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        batches.add(batch.handle((result, t) -> {
+            if (t == null) {
+                // keys OSS could not delete are missing from the deleted keys of the response
+                Set<String> undeleted = new LinkedHashSet<>(keys);
+                if (result != null && result.getDeletedObjects() != null) {
+                    undeleted.removeAll(result.getDeletedObjects());
+                }
+                if (undeleted.isEmpty() == false) {
+                    logger.warn("failed to delete [{}] of a batch of [{}] blobs, including [{}]", undeleted.size(),
+                        keys.size(), undeleted.iterator().next());
+                    failedKeys.addAll(undeleted);
+                }
+            } else {
+                Exception e = OssBlobStore.unwrapCompletion(t);
+                logger.warn("failed to delete a batch of [{}] blobs starting at [{}] : {}", keys.size(), keys.get(0),
+                    e.getMessage());
+                failedKeys.addAll(keys);
+                failures.add(e);
+            }
+            inFlight.release();
+            return null;
+        }));
+    }
+
+    /**
+     * Sends the last batch and waits for all batches to complete.
+     *
+     * @return number of deleted keys
+     * @throws IOException if any batch failed, listing some of the keys that may not have been deleted
+     */
+    long finish() throws IOException {
+        flush();
+        for (CompletableFuture<?> batch : batches) {
+            OssBlobStore.await(batch);
+        }
+        batches.clear();
+        if (failedKeys.isEmpty()) {
+            return submittedKeys;
+        }
+        IOException e = new IOException("failed to delete [" + failedKeys.size() + "] of [" + submittedKeys
+            + "] blobs, including " + failedKeys.subList(0, Math.min(MAX_REPORTED_KEYS, failedKeys.size())));
+        for (Exception failure : failures.subList(0, Math.min(MAX_REPORTED_KEYS, failures.size()))) {
+            e.addSuppressed(failure);
+        }
+        throw e;
+    }
+
+    /**
+     * Stops waiting for the batches that are still pending if {@link #finish()} was not reached.
+     */
+    @Override
+    public void close() {
+        for (CompletableFuture<?> batch : batches) {
+            batch.cancel(true);
+        }
+    }
+}
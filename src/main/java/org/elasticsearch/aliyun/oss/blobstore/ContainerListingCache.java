@@ -0,0 +1,126 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+/**
+ * Caches the full listings of blob containers, the name and size of every blob directly in a container, so
+ * existence checks and listings right after a listing do not go to OSS again. Writes and deletes through
+ * this node update the cached listing. Changes made by other nodes are only seen once the listing expires,
+ * which is why the cache is opt-in.
+ */
+class ContainerListingCache {
+
+    private final Cache<String, Container> containers;
+
+    /**
+     * @param expireAfterWrite time after which a listing is fetched again
+     * @param maxBlobs         number of cached blobs above which the least recently used listings are evicted
+     */
+    ContainerListingCache(TimeValue expireAfterWrite, long maxBlobs) {
+        this.containers = CacheBuilder.<String, Container>builder()
+            .setExpireAfterWrite(expireAfterWrite)
+            .setMaximumWeight(maxBlobs)
+            .weigher((keyPath, container) -> container.weight())
+            .build();
+    }
+
+    /**
+     * Returns the cached listing of a container
+     *
+     * @param keyPath path of the container
+     * @return sizes of the blobs of the container by name, or null if the container is not cached
+     */
+    Map<String, Long> get(String keyPath) {
+        Container container = containers.get(keyPath);
+        return container == null ? null : container.blobs;
+    }
+
+    /**
+     * Caches the listing of a container, unless a blob of the container was written or deleted through this
+     * node since the listing started, in which case the listing may miss the change
+     *
+     * @param keyPath           path of the container
+     * @param blobs             sizes of all the blobs of the container by name
+     * @param listingStartNanos {@link System#nanoTime()} before the listing was requested
+     */
+    void put(String keyPath, Map<String, Long> blobs, long listingStartNanos) {
+        Container container = getOrCreate(keyPath);
+        synchronized (container) {
+            if (container.changed && container.lastChangeNanos - listingStartNanos >= 0) {
+                return;
+            }
+            Map<String, Long> listing = ConcurrentCollections.newConcurrentMap();
+            listing.putAll(blobs);
+            container.blobs = Collections.unmodifiableMap(listing);
+            container.mutableBlobs = listing;
+        }
+        // put again so the weight of the listing is accounted for
+        containers.put(keyPath, container);
+    }
+
+    /**
+     * Records a blob written through this node
+     */
+    void onWrite(String keyPath, String blobName, long blobSize) {
+        Container container = getOrCreate(keyPath);
+        synchronized (container) {
+            container.changed = true;
+            container.lastChangeNanos = System.nanoTime();
+            if (container.mutableBlobs != null) {
+                container.mutableBlobs.put(blobName, blobSize);
+            }
+        }
+    }
+
+    /**
+     * Records a blob deleted through this node
+     */
+    void onDelete(String keyPath, String blobName) {
+        Container container = getOrCreate(keyPath);
+        synchronized (container) {
+            container.changed = true;
+            container.lastChangeNanos = System.nanoTime();
+            if (container.mutableBlobs != null) {
+                container.mutableBlobs.remove(blobName);
+            }
+        }
+    }
+
+    /**
+     * Drops the listings of the containers whose path starts with a prefix
+     */
+    void invalidateByPrefix(String keyPrefix) {
+        for (String keyPath : containers.keys()) {
+            if (keyPath.startsWith(keyPrefix)) {
+                containers.invalidate(keyPath);
+            }
+        }
+    }
+
+    private Container getOrCreate(String keyPath) {
+        try {
+            return containers.computeIfAbsent(keyPath, key -> new Container());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Container {
+        private volatile Map<String, Long> blobs;
+        private Map<String, Long> mutableBlobs;
+        private boolean changed;
+        private long lastChangeNanos;
+
+        long weight() {
+            Map<String, Long> listing = blobs;
+            return 1 + (listing == null ? 0 : listing.size());
+        }
+    }
+}
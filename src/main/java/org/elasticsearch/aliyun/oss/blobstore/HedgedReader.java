@@ -0,0 +1,209 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.aliyun.oss.service.OssService;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.utils.PermissionHelper;
+
+/**
+ * Sends GET requests with a hedge: if the response headers of a request have not arrived within a delay,
+ * the same request is sent a second time and the first response to arrive is returned, the other one is
+ * aborted. The delay is a percentile of the recent time to first byte of GET requests, so that only the
+ * slowest requests are hedged, and is never below a minimum delay. Hedges are paid for by a budget that
+ * every request adds a share to, so they stay below that share of the requests even when OSS is slow as
+ * a whole.
+ * <p>
+ * Requests are sent on an executor of their own rather than on the transfer executor, since ranges of
+ * parallel downloads already run on the transfer executor and wait for their requests.
+ */
+class HedgedReader implements Closeable {
+    private static final Logger logger = LogManager.getLogger(HedgedReader.class);
+
+    /**
+     * Latencies the delay is computed from before the first window is complete
+     */
+    static final int MIN_SAMPLES = 32;
+    /**
+     * Latencies after which the percentile is computed again
+     */
+    private static final int RECOMPUTE_SAMPLES = 16;
+    /**
+     * Latencies after which older latencies are forgotten, so that the delay follows OSS
+     */
+    static final int WINDOW_SAMPLES = 1024;
+    /**
+     * Most hedges that can be sent in a burst out of the unused budget
+     */
+    private static final double MAX_BUDGET = 10;
+
+    private final OssService client;
+    private final OssStats stats;
+    private final ExecutorService executor;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double maxHedgedFraction;
+    /**
+     * Time to first byte of recent requests, in microseconds
+     */
+    private final Histogram latencies = new Histogram(2);
+    /**
+     * Delay before a hedge is sent, 0 until enough latencies are known
+     */
+    private volatile long delayNanos;
+    private double budget;
+
+    /**
+     * @param percentile        percentile of the time to first byte after which a request is hedged
+     * @param minDelay          shortest delay after which a request is hedged
+     * @param maxHedgedFraction largest share of requests that are hedged
+     */
+    HedgedReader(OssService client, OssStats stats, int percentile, TimeValue minDelay, double maxHedgedFraction) {
+        this.client = client;
+        this.stats = stats;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.nanos();
+        this.maxHedgedFraction = maxHedgedFraction;
+        this.executor = Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory("oss_hedged_read"));
+    }
+
+    /**
+     * Sends a GET request, and a hedge of it if it is slow to answer
+     *
+     * @return the response which arrived first
+     */
+    OSSObject getObject(GetObjectRequest request) throws IOException {
+        final CompletableFuture<OSSObject> result = new CompletableFuture<>();
+        final AtomicInteger pendingAttempts = new AtomicInteger(1);
+        final long delay = delayNanos;
+        addBudget();
+        final Future<?> first = executor.submit(() -> send(request, result, pendingAttempts, false));
+        Future<?> hedge = null;
+        try {
+            if (delay == 0) {
+                return result.get();
+            }
+            try {
+                return result.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (tryAcquireHedge() == false) {
+                    stats.onHedgeOverBudget();
+                    return result.get();
+                }
+                pendingAttempts.incrementAndGet();
+                stats.onHedgeSent();
+                hedge = executor.submit(() -> send(request, result, pendingAttempts, true));
+                return result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for [" + request.getKey() + "]");
+        } catch (ExecutionException e) {
+            Exception cause = OssBlobStore.unwrapCompletion(e.getCause());
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // the attempt that lost is interrupted, its response is aborted if it still arrives
+            first.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private void send(GetObjectRequest request, CompletableFuture<OSSObject> result, AtomicInteger pendingAttempts,
+        boolean isHedge) {
+        final long start = System.nanoTime();
+        try {
+            OSSObject object = PermissionHelper.doPrivileged(() -> client.getObject(request));
+            recordLatency(System.nanoTime() - start);
+            if (result.complete(object)) {
+                if (isHedge) {
+                    stats.onHedgeWon();
+                }
+            } else {
+                abort(object);
+            }
+        } catch (Exception e) {
+            if (pendingAttempts.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            } else {
+                logger.debug("{} of [{}] failed while another one is pending : {}", isHedge ? "hedge" : "request",
+                    request.getKey(), e.getMessage());
+            }
+            return;
+        }
+        pendingAttempts.decrementAndGet();
+    }
+
+    /**
+     * Closes the response of the request that lost without reading the rest of its content
+     */
+    private static void abort(OSSObject object) {
+        try {
+            object.forcedClose();
+        } catch (IOException | RuntimeException e) {
+            try {
+                object.close();
+            } catch (IOException closeFailure) {
+                logger.debug("failed to close the response of a hedged request : {}", closeFailure.getMessage());
+            }
+        }
+    }
+
+    private synchronized void recordLatency(long tookNanos) {
+        latencies.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(tookNanos)));
+        final long count = latencies.getTotalCount();
+        if (count >= MIN_SAMPLES && count % RECOMPUTE_SAMPLES == 0) {
+            delayNanos = Math.max(minDelayNanos,
+                TimeUnit.MICROSECONDS.toNanos(latencies.getValueAtPercentile(percentile)));
+        }
+        if (count >= WINDOW_SAMPLES) {
+            latencies.reset();
+        }
+    }
+
+    private synchronized void addBudget() {
+        budget = Math.min(MAX_BUDGET, budget + maxHedgedFraction);
+    }
+
+    private synchronized boolean tryAcquireHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * @return the delay after which requests are hedged, 0 while too few latencies are known
+     */
+    long getDelayNanos() {
+        return delayNanos;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,204 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.core.internal.io.IOUtils;
+
+/**
+ * Node local, size bounded, least recently used cache on disk of the repository metadata blobs which never
+ * change once written: the {@code index-N} generations and the {@code snap-*.dat} and {@code meta-*.dat}
+ * blobs. Blobs are keyed by their full key, which includes their generation or snapshot uuid, and are
+ * invalidated when they are deleted or written again through the blob store.
+ */
+class MetadataBlobCache implements Closeable {
+    private static final Logger logger = LogManager.getLogger(MetadataBlobCache.class);
+
+    private static final Pattern CACHEABLE_BLOB_NAME = Pattern.compile("index-\\d+|snap-.+\\.dat|meta-.+\\.dat");
+
+    private final Path directory;
+    private final long maxSizeInBytes;
+    private final OssStats stats;
+    private final AtomicLong fileCounter = new AtomicLong();
+    /**
+     * Cached blobs in access order, the least recently used first
+     */
+    private final LinkedHashMap<String, CachedBlob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Marker of the latest download of each key being loaded, removed when the key is invalidated so a
+     * download started before the invalidation does not add the stale blob
+     */
+    private final Map<String, Object> loading = new HashMap<>();
+    private long sizeInBytes;
+
+    /**
+     * @param directory      empty directory owned by the cache
+     * @param maxSizeInBytes size of the cached blobs above which the least recently used ones are evicted
+     * @param stats          stats the hits and misses are recorded in
+     */
+    MetadataBlobCache(Path directory, long maxSizeInBytes, OssStats stats) {
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.stats = stats;
+    }
+
+    /**
+     * Returns true if the blob of the given key is immutable metadata that can be cached
+     */
+    static boolean isCacheable(String key) {
+        return CACHEABLE_BLOB_NAME.matcher(key.substring(key.lastIndexOf(OssBlobStore.DELIMITER) + 1)).matches();
+    }
+
+    /**
+     * Returns a stream of the cached copy of a blob, first downloading it into the cache if it is not cached
+     *
+     * @param key    full key of the blob
+     * @param loader opens a stream of the blob content in the repository
+     */
+    InputStream readBlob(String key, CheckedSupplier<InputStream, IOException> loader) throws IOException {
+        final Object load = new Object();
+        synchronized (this) {
+            CachedBlob cached = blobs.get(key);
+            if (cached != null) {
+                stats.onMetadataCacheHit();
+                return Files.newInputStream(cached.file);
+            }
+            loading.put(key, load);
+        }
+        stats.onMetadataCacheMiss();
+        Path file = directory.resolve("blob-" + fileCounter.incrementAndGet());
+        final long size;
+        try (InputStream inputStream = loader.get()) {
+            size = Files.copy(inputStream, file);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key, load);
+            }
+            deleteQuietly(file);
+            throw e;
+        }
+        final InputStream cachedStream;
+        List<Path> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (loading.remove(key, load) == false) {
+                // invalidated or loaded again while it was downloaded, the download is read once and not cached
+                return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            // opened before the blob is added, so the stream is valid even if the blob is evicted right away
+            cachedStream = Files.newInputStream(file);
+            CachedBlob previous = blobs.put(key, new CachedBlob(file, size));
+            if (previous != null) {
+                sizeInBytes -= previous.size;
+                evicted.add(previous.file);
+            }
+            sizeInBytes += size;
+            Iterator<CachedBlob> leastRecentlyUsed = blobs.values().iterator();
+            while (sizeInBytes > maxSizeInBytes && leastRecentlyUsed.hasNext()) {
+                CachedBlob blob = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                sizeInBytes -= blob.size;
+                evicted.add(blob.file);
+            }
+        }
+        evicted.forEach(MetadataBlobCache::deleteQuietly);
+        return cachedStream;
+    }
+
+    /**
+     * Removes a blob from the cache
+     *
+     * @param key full key of the blob
+     */
+    void invalidate(String key) {
+        CachedBlob removed;
+        synchronized (this) {
+            loading.remove(key);
+            removed = blobs.remove(key);
+            if (removed != null) {
+                sizeInBytes -= removed.size;
+            }
+        }
+        if (removed != null) {
+            deleteQuietly(removed.file);
+        }
+    }
+
+    /**
+     * Removes all the blobs whose key starts with a prefix from the cache
+     *
+     * @param keyPrefix prefix of the full keys of the blobs
+     */
+    void invalidateByPrefix(String keyPrefix) {
+        List<Path> removed = new ArrayList<>();
+        synchronized (this) {
+            loading.keySet().removeIf(key -> key.startsWith(keyPrefix));
+            Iterator<Map.Entry<String, CachedBlob>> iterator = blobs.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, CachedBlob> blob = iterator.next();
+                if (blob.getKey().startsWith(keyPrefix)) {
+                    iterator.remove();
+                    sizeInBytes -= blob.getValue().size;
+                    removed.add(blob.getValue().file);
+                }
+            }
+        }
+        removed.forEach(MetadataBlobCache::deleteQuietly);
+    }
+
+    /**
+     * @return total size of the cached blobs
+     */
+    synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("failed to delete cached blob [{}] : {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the cache directory with all cached blobs
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            blobs.clear();
+            loading.clear();
+            sizeInBytes = 0;
+        }
+        try {
+            IOUtils.rm(directory);
+        } catch (IOException e) {
+            logger.warn("failed to delete metadata cache directory [{}] : {}", directory, e.getMessage());
+        }
+    }
+
+    private static class CachedBlob {
+        private final Path file;
+        private final long size;
+
+        private CachedBlob(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
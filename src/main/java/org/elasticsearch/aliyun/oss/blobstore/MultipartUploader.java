@@ -0,0 +1,381 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.PartSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.hash.MessageDigests;
+
+/**
+ * Uploads a blob with OSS multipart upload. Parts are read sequentially from the source stream into
+ * pooled buffers and up to {@code concurrency} of them are uploaded at the same time, so at most
+ * {@code concurrency} part buffers are held in memory per upload. Blobs can also be copied with concurrent server side
+ * part copies, without any data going through this node.
+ */
+class MultipartUploader {
+    private static final Logger logger = LogManager.getLogger(MultipartUploader.class);
+
+    /**
+     * OSS accepts at most 10000 parts in one multipart upload.
+     */
+    static final int MAX_PARTS = 10000;
+    /**
+     * Most failed uploads kept to be resumed, older ones are aborted
+     */
+    static final int MAX_CHECKPOINTS = 100;
+    /**
+     * OSS errors which a part upload is retried after
+     */
+    private static final Set<String> RETRYABLE_ERROR_CODES = Collections.unmodifiableSet(new HashSet<>(
+        Arrays.asList(OSSErrorCode.INTERNAL_ERROR, OSSErrorCode.REQUEST_TIMEOUT)));
+
+    private final OssBlobStore blobStore;
+    private final ExecutorService executor;
+    private final UploadBufferPool bufferPool;
+    private final long partSize;
+    private final long copyPartSize;
+    private final int concurrency;
+    private final int partMaxRetries;
+    /**
+     * Failed uploads by blob name, evicted in insertion order. Evicted uploads are left for the stale upload sweep.
+     */
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<String, Checkpoint>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Checkpoint> eldest) {
+            return size() > MAX_CHECKPOINTS;
+        }
+    };
+
+    MultipartUploader(OssBlobStore blobStore, ExecutorService executor, UploadBufferPool bufferPool, long partSize,
+        long copyPartSize, int concurrency, int partMaxRetries) {
+        this.blobStore = blobStore;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.partSize = partSize;
+        this.copyPartSize = copyPartSize;
+        this.concurrency = concurrency;
+        this.partMaxRetries = partMaxRetries;
+    }
+
+    /**
+     * Uploads {@code blobSize} bytes of the input stream to the given blob. A part that fails is sent again,
+     * from the buffer it was read into, up to {@code partMaxRetries} times. If a part still fails, the parts
+     * that completed are kept so that a later upload of the same blob only sends the missing parts. Otherwise
+     * the multipart upload is aborted.
+     *
+     * @param blobName        name of the blob
+     * @param inputStream     content of the blob to be written
+     * @param blobSize        expected size of the blob to be written, or its largest size if it is not exact
+     * @param exactSize       whether the stream must hold exactly {@code blobSize} bytes, otherwise the upload
+     *                        ends with the stream
+     * @param forbidOverwrite whether OSS should reject the upload if the blob already exists
+     * @param userMetadata    user metadata of the blob, or null
+     */
+    void upload(String blobName, InputStream inputStream, long blobSize, boolean exactSize, boolean forbidOverwrite,
+        Map<String, String> userMetadata) throws IOException {
+        final long actualPartSize = actualPartSize(partSize, blobSize);
+        final int partCount = (int)((blobSize + actualPartSize - 1) / actualPartSize);
+        final Checkpoint checkpoint = resume(blobName, blobSize, actualPartSize, forbidOverwrite, userMetadata);
+        final String uploadId = checkpoint.uploadId;
+        logger.trace("multipart upload [{}] of [{}] started, [{}] parts of [{}] bytes, [{}] already uploaded",
+            uploadId, blobName, partCount, actualPartSize, checkpoint.uploadedParts.size());
+
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final List<Future<PartETag>> parts = new ArrayList<>(partCount);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final AtomicInteger completedParts = new AtomicInteger();
+        boolean success = false;
+        try {
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                acquire(inFlight);
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                final long offset = (partNumber - 1) * actualPartSize;
+                final int length = (int)Math.min(actualPartSize, blobSize - offset);
+                final UploadBuffer buffer;
+                boolean lastPart = partNumber == partCount;
+                try {
+                    buffer = bufferPool.read(inputStream, length);
+                } catch (IOException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                if (buffer.length() != length) {
+                    if (exactSize || (buffer.length() == 0 && partNumber > 1)) {
+                        buffer.close();
+                        inFlight.release();
+                        if (exactSize) {
+                            throw new IOException("unexpected end of stream while reading part [" + partNumber
+                                + "] of [" + blobName + "]");
+                        }
+                        break;
+                    }
+                    lastPart = true;
+                }
+                final PartSummary uploaded = checkpoint.uploadedParts.get(partNumber);
+                if (uploaded != null && uploaded.getSize() == buffer.length()
+                    && sameContent(uploaded.getETag(), buffer)) {
+                    buffer.close();
+                    inFlight.release();
+                    completedParts.incrementAndGet();
+                    parts.add(CompletableFuture.completedFuture(
+                        new PartETag(partNumber, uploaded.getETag(), uploaded.getSize(), null)));
+                } else {
+                    final int number = partNumber;
+                    parts.add(executor.submit(() -> {
+                        try {
+                            PartETag partETag = uploadPart(blobName, uploadId, number, buffer);
+                            completedParts.incrementAndGet();
+                            return partETag;
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                            throw e;
+                        } finally {
+                            buffer.close();
+                            inFlight.release();
+                        }
+                    }));
+                }
+                if (lastPart) {
+                    break;
+                }
+            }
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for (Future<PartETag> part : parts) {
+                partETags.add(OssBlobStore.await(part));
+            }
+            if (!exactSize && inputStream.read() != -1) {
+                throw new IOException("stream of [" + blobName + "] is longer than [" + blobSize + "] bytes");
+            }
+            blobStore.completeMultipartUpload(blobName, uploadId, partETags, forbidOverwrite);
+            success = true;
+        } finally {
+            if (!success) {
+                Exception partFailure = failure.get();
+                if (partFailure != null && !(partFailure instanceof InterruptedIOException)
+                    && completedParts.get() > 0) {
+                    cancel(parts);
+                    keep(blobName, checkpoint);
+                    logger.debug("keeping [{}] of [{}] parts of multipart upload [{}] of [{}] to resume it",
+                        completedParts.get(), partCount, uploadId, blobName);
+                } else {
+                    abort(blobName, uploadId, parts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uploads a part, sending it again if it fails with an error that may be transient
+     */
+    private PartETag uploadPart(String blobName, String uploadId, int partNumber, UploadBuffer buffer)
+        throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return blobStore.uploadPart(blobName, uploadId, partNumber, buffer);
+            } catch (IOException | RuntimeException e) {
+                if (attempt >= partMaxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                logger.debug("retrying part [{}] of multipart upload [{}] of [{}] after failure : {}", partNumber,
+                    uploadId, blobName, e.getMessage());
+            }
+            blobStore.getStats().onRetry();
+            RequestRateGovernor.backoff(attempt + 1);
+        }
+    }
+
+    /**
+     * Returns true for network failures and OSS server errors, which may not happen again
+     */
+    static boolean isRetryable(Exception e) {
+        if (e instanceof OSSException) {
+            return RETRYABLE_ERROR_CODES.contains(((OSSException)e).getErrorCode()) || OssBlobStore.isThrottled(e);
+        }
+        return e instanceof ClientException || (e instanceof IOException && !(e instanceof InterruptedIOException));
+    }
+
+    /**
+     * Takes the checkpoint of a previous upload of the blob and lists the parts OSS holds for it, or initiates
+     * a new multipart upload if there is no matching checkpoint or its upload is gone.
+     */
+    private Checkpoint resume(String blobName, long blobSize, long actualPartSize, boolean forbidOverwrite,
+        Map<String, String> userMetadata) throws IOException {
+        Checkpoint checkpoint;
+        synchronized (checkpoints) {
+            checkpoint = checkpoints.remove(blobName);
+        }
+        if (checkpoint != null) {
+            if (checkpoint.blobSize == blobSize && checkpoint.partSize == actualPartSize
+                && checkpoint.forbidOverwrite == forbidOverwrite
+                && Objects.equals(checkpoint.userMetadata, userMetadata)) {
+                try {
+                    checkpoint.uploadedParts.putAll(blobStore.listParts(blobName, checkpoint.uploadId));
+                    return checkpoint;
+                } catch (OSSException e) {
+                    logger.debug("cannot resume multipart upload [{}] of [{}] : {}", checkpoint.uploadId, blobName,
+                        e.getMessage());
+                    if (OSSErrorCode.NO_SUCH_UPLOAD.equals(e.getErrorCode())) {
+                        checkpoint = null;
+                    }
+                }
+            }
+            if (checkpoint != null) {
+                abort(blobName, checkpoint.uploadId, Collections.emptyList());
+            }
+        }
+        String uploadId = blobStore.initiateMultipartUpload(blobName, forbidOverwrite, userMetadata);
+        return new Checkpoint(uploadId, blobSize, actualPartSize, forbidOverwrite, userMetadata);
+    }
+
+    private void keep(String blobName, Checkpoint checkpoint) {
+        checkpoint.uploadedParts.clear();
+        Checkpoint previous;
+        synchronized (checkpoints) {
+            previous = checkpoints.put(blobName, checkpoint);
+        }
+        if (previous != null) {
+            abort(blobName, previous.uploadId, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Returns true if the ETag OSS returned for a part is the MD5 digest of the given content
+     */
+    private static boolean sameContent(String eTag, UploadBuffer content) {
+        String digest = MessageDigests.toHexString(content.md5());
+        return eTag != null && digest.equalsIgnoreCase(eTag.replace("\"", ""));
+    }
+
+    /**
+     * Copies a blob with server side part copies, up to {@code concurrency} at the same time. The multipart
+     * upload is aborted if any part fails.
+     *
+     * @param sourceBlobName name of the blob to copy
+     * @param targetBlobName name of the copy
+     * @param blobSize       size of the blob to copy
+     * @param eTag           ETag of the blob to copy, parts fail if the blob changes during the copy
+     */
+    void copy(String sourceBlobName, String targetBlobName, long blobSize, String eTag) throws IOException {
+        final long actualPartSize = actualPartSize(copyPartSize, blobSize);
+        final int partCount = (int)((blobSize + actualPartSize - 1) / actualPartSize);
+        final String uploadId = blobStore.initiateMultipartUpload(targetBlobName, false, null);
+        logger.trace("multipart copy [{}] of [{}] to [{}] started, [{}] parts of [{}] bytes", uploadId,
+            sourceBlobName, targetBlobName, partCount, actualPartSize);
+
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final List<Future<PartETag>> parts = new ArrayList<>(partCount);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        boolean success = false;
+        try {
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                acquire(inFlight);
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                final long offset = (partNumber - 1) * actualPartSize;
+                final long length = Math.min(actualPartSize, blobSize - offset);
+                final int number = partNumber;
+                parts.add(executor.submit(() -> {
+                    try {
+                        return blobStore.uploadPartCopy(sourceBlobName, eTag, targetBlobName, uploadId, number,
+                            offset, length);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for (Future<PartETag> part : parts) {
+                partETags.add(OssBlobStore.await(part));
+            }
+            blobStore.completeMultipartUpload(targetBlobName, uploadId, partETags, false);
+            success = true;
+        } finally {
+            if (!success) {
+                abort(targetBlobName, uploadId, parts);
+            }
+        }
+    }
+
+    /**
+     * Returns the configured part size, or a larger one if the blob would need more than {@link #MAX_PARTS} parts
+     */
+    private static long actualPartSize(long partSize, long blobSize) {
+        return Math.max(partSize, (blobSize + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    private void abort(String blobName, String uploadId, List<Future<PartETag>> parts) {
+        cancel(parts);
+        try {
+            blobStore.abortMultipartUpload(blobName, uploadId);
+        } catch (Exception e) {
+            logger.warn("failed to abort multipart upload [{}] of [{}] : {}", uploadId, blobName, e.getMessage());
+        }
+    }
+
+    private static void cancel(List<Future<PartETag>> parts) {
+        for (Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) throws IOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an upload slot");
+        }
+    }
+
+    /**
+     * State of a multipart upload kept after a failure, and the parts OSS holds for it once it is resumed
+     */
+    private static class Checkpoint {
+        private final String uploadId;
+        private final long blobSize;
+        private final long partSize;
+        private final boolean forbidOverwrite;
+        private final Map<String, String> userMetadata;
+        private final Map<Integer, PartSummary> uploadedParts = new HashMap<>();
+
+        private Checkpoint(String uploadId, long blobSize, long partSize, boolean forbidOverwrite,
+            Map<String, String> userMetadata) {
+            this.uploadId = uploadId;
+            this.blobSize = blobSize;
+            this.partSize = partSize;
+            this.forbidOverwrite = forbidOverwrite;
+            this.userMetadata = userMetadata;
+        }
+    }
+}
@@ -4,23 +4,33 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.CheckedConsumer;
 import org.elasticsearch.common.blobstore.BlobMetaData;
 import org.elasticsearch.common.blobstore.BlobPath;
 import org.elasticsearch.common.blobstore.BlobStoreException;
 import org.elasticsearch.common.blobstore.support.AbstractBlobContainer;
+import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
+import org.elasticsearch.common.collect.MapBuilder;
 /**
  * A class for managing a oss repository of blob entries, where each blob entry is just a named group of bytes
  * Created by yangkongshi on 2017/11/24.
  */
 public class OssBlobContainer extends AbstractBlobContainer {
     private static final Logger logger = LogManager.getLogger(OssBlobContainer.class);
+    /**
+     * Error code of a write rejected by {@link OssBlobStore#FORBID_OVERWRITE_HEADER}
+     */
+    private static final String FILE_ALREADY_EXISTS = "FileAlreadyExists";
     protected final OssBlobStore blobStore;
     protected final String keyPath;
 
@@ -39,6 +49,10 @@ public class OssBlobContainer extends AbstractBlobContainer {
     @Override
     public boolean blobExists(String blobName) {
         logger.trace("blobExists({})", blobName);
+        Map<String, Long> cachedBlobs = getCachedListing();
+        if (cachedBlobs != null) {
+            return cachedBlobs.containsKey(blobName);
+        }
         try {
             return blobStore.blobExists(buildKey(blobName));
         } catch (OSSException | ClientException | IOException e) {
@@ -47,6 +61,36 @@ public class OssBlobContainer extends AbstractBlobContainer {
         }
     }
 
+    /**
+     * Tests which of the given blobs exist in the container and looks up their sizes. Unlike calling
+     * {@link #blobExists(String)} for each name, this lists the keys between the names when they are dense,
+     * so many names take a few requests, and sends bounded concurrent HEAD requests when they are sparse.
+     *
+     * @param blobNames The names of the blobs to look up.
+     * @return A map of the blobs that exist, by name. Blobs that do not exist are left out.
+     * @throws IOException if the blobs could not be looked up.
+     */
+    public Map<String, BlobMetaData> lookupBlobs(Collection<String> blobNames) throws IOException {
+        logger.trace("lookupBlobs({} blobs)", blobNames.size());
+        Map<String, Long> cachedBlobs = getCachedListing();
+        if (cachedBlobs != null) {
+            Map<String, BlobMetaData> blobs = new HashMap<>();
+            for (String blobName : blobNames) {
+                Long blobSize = cachedBlobs.get(blobName);
+                if (blobSize != null) {
+                    blobs.put(blobName, new PlainBlobMetaData(blobName, blobSize));
+                }
+            }
+            return blobs;
+        }
+        try {
+            return blobStore.lookupBlobs(keyPath, blobNames);
+        } catch (OSSException | ClientException e) {
+            logger.warn("can not access [{}] : {}", keyPath, e.getMessage());
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Creates a new {@link InputStream} for the given blob name.
      *
@@ -58,10 +102,14 @@ public class OssBlobContainer extends AbstractBlobContainer {
     @Override
     public InputStream readBlob(String blobName) throws IOException {
         logger.trace("readBlob({})", blobName);
-        if (!blobExists(blobName)) {
-            throw new NoSuchFileException("[" + blobName + "] blob not found");
+        try {
+            return blobStore.readBlob(buildKey(blobName));
+        } catch (OSSException e) {
+            if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+                throw new NoSuchFileException("[" + blobName + "] blob not found");
+            }
+            throw e;
         }
-        return blobStore.readBlob(buildKey(blobName));
     }
 
     /**
@@ -80,21 +128,26 @@ public class OssBlobContainer extends AbstractBlobContainer {
     @Override
     public void writeBlob(String blobName, InputStream inputStream, long blobSize, boolean failIfAlreadyExists)
         throws IOException {
-        if (blobExists(blobName)) {
-            if (failIfAlreadyExists) {
+        logger.trace("writeBlob({}, stream, {})", blobName, blobSize);
+        try {
+            long storedSize = blobStore.writeBlob(buildKey(blobName), inputStream, blobSize, failIfAlreadyExists);
+            if (blobStore.getContainerListingCache() != null) {
+                // the cache holds the sizes OSS lists, which are those of compressed objects
+                blobStore.getContainerListingCache().onWrite(keyPath, blobName, storedSize);
+            }
+        } catch (OSSException e) {
+            if (FILE_ALREADY_EXISTS.equals(e.getErrorCode())) {
                 throw new FileAlreadyExistsException(
                     "blob [" + blobName + "] already exists, cannot overwrite");
-            } else {
-                deleteBlobIgnoringIfNotExists(blobName);
             }
+            throw e;
         }
-        logger.trace("writeBlob({}, stream, {})", blobName, blobSize);
-        blobStore.writeBlob(buildKey(blobName), inputStream, blobSize);
     }
 
     /**
      * Deletes a blob with giving name, if the blob exists.  If the blob does not exist, this method throws an
-     * IOException.
+     * IOException. OSS deletes are idempotent and do not report missing objects, so this needs an extra
+     * existence check, prefer {@link #deleteBlobIgnoringIfNotExists(String)} when the blob may be absent.
      *
      * @param blobName The name of the blob to delete.
      * @throws NoSuchFileException if the blob does not exist
@@ -108,6 +161,9 @@ public class OssBlobContainer extends AbstractBlobContainer {
         }
         try {
             blobStore.deleteBlob(buildKey(blobName));
+            if (blobStore.getContainerListingCache() != null) {
+                blobStore.getContainerListingCache().onDelete(keyPath, blobName);
+            }
         } catch (OSSException | ClientException e) {
             logger.warn("can not access [{}] : {}", blobName,
                 e.getMessage());
@@ -116,6 +172,27 @@ public class OssBlobContainer extends AbstractBlobContainer {
 
     }
 
+    /**
+     * Deletes a blob with giving name, ignoring if the blob does not exist. This takes a single request.
+     *
+     * @param blobName The name of the blob to delete.
+     * @throws IOException if the blob exists but could not be deleted.
+     */
+    @Override
+    public void deleteBlobIgnoringIfNotExists(String blobName) throws IOException {
+        logger.trace("deleteBlobIgnoringIfNotExists({})", blobName);
+        try {
+            blobStore.deleteBlob(buildKey(blobName));
+            if (blobStore.getContainerListingCache() != null) {
+                blobStore.getContainerListingCache().onDelete(keyPath, blobName);
+            }
+        } catch (OSSException | ClientException e) {
+            logger.warn("can not access [{}] : {}", blobName,
+                e.getMessage());
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Lists all blobs in the container.
      *
@@ -129,7 +206,7 @@ public class OssBlobContainer extends AbstractBlobContainer {
     }
 
     /**
-     * Lists all blobs in the container.
+     * Lists all blobs in the container which have a prefix. Blobs in child containers are not included.
      *
      * @return A map of all the blobs in the container.  The keys in the map are the names of the blobs and
      * the values are {@link BlobMetaData}, containing basic information about each blob.
@@ -139,7 +216,28 @@ public class OssBlobContainer extends AbstractBlobContainer {
     public Map<String, BlobMetaData> listBlobsByPrefix(String blobNamePrefix)
         throws IOException {
         logger.trace("listBlobsByPrefix({})", blobNamePrefix);
+        Map<String, Long> cachedBlobs = getCachedListing();
+        if (cachedBlobs != null) {
+            MapBuilder<String, BlobMetaData> blobsBuilder = MapBuilder.newMapBuilder();
+            for (Map.Entry<String, Long> blob : cachedBlobs.entrySet()) {
+                if (blobNamePrefix == null || blob.getKey().startsWith(blobNamePrefix)) {
+                    blobsBuilder.put(blob.getKey(), new PlainBlobMetaData(blob.getKey(), blob.getValue()));
+                }
+            }
+            return blobsBuilder.immutableMap();
+        }
         try {
+            ContainerListingCache cache = blobStore.getContainerListingCache();
+            if (cache != null && blobNamePrefix == null) {
+                final long listingStartNanos = System.nanoTime();
+                Map<String, BlobMetaData> blobs = blobStore.listBlobsByPrefix(keyPath, null);
+                Map<String, Long> sizes = new HashMap<>(blobs.size());
+                for (BlobMetaData blob : blobs.values()) {
+                    sizes.put(blob.name(), blob.length());
+                }
+                cache.put(keyPath, sizes, listingStartNanos);
+                return blobs;
+            }
             return blobStore.listBlobsByPrefix(keyPath, blobNamePrefix);
         } catch (IOException e) {
             logger.warn("can not access [{}] : {}", blobNamePrefix, e.getMessage());
@@ -147,6 +245,40 @@ public class OssBlobContainer extends AbstractBlobContainer {
         }
     }
 
+    /**
+     * Passes the blobs in the container which have a prefix to a consumer. Unlike {@link #listBlobsByPrefix(String)}
+     * this does not build a map of all blobs, so memory use does not grow with the size of the container.
+     *
+     * @param blobNamePrefix prefix of the blobs to list, or null for all blobs
+     * @param consumer       receives the metadata of each blob
+     * @throws IOException if there were any failures in reading from the blob container.
+     */
+    public void forEachBlobByPrefix(String blobNamePrefix, CheckedConsumer<BlobMetaData, IOException> consumer)
+        throws IOException {
+        logger.trace("forEachBlobByPrefix({})", blobNamePrefix);
+        blobStore.forEachBlobByPrefix(keyPath, blobNamePrefix, consumer);
+    }
+
+    /**
+     * Returns the names and sizes of the blobs of this container from the container listing cache, recording
+     * the lookup in the repository stats
+     *
+     * @return sizes of the blobs by name, or null if the cache is disabled or does not hold this container
+     */
+    private Map<String, Long> getCachedListing() {
+        ContainerListingCache cache = blobStore.getContainerListingCache();
+        if (cache == null) {
+            return null;
+        }
+        Map<String, Long> blobs = cache.get(keyPath);
+        if (blobs == null) {
+            blobStore.getStats().onContainerCacheMiss();
+        } else {
+            blobStore.getStats().onContainerCacheHit();
+        }
+        return blobs;
+    }
+
     protected String buildKey(String blobName) {
         return keyPath + (blobName == null ? StringUtils.EMPTY : blobName);
     }
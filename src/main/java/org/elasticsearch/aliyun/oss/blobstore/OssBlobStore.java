@@ -1,22 +1,61 @@
 package org.elasticsearch.aliyun.oss.blobstore;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.PrivilegedExceptionAction;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
 import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.ListMultipartUploadsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ListPartsRequest;
+import com.aliyun.oss.model.MultipartUpload;
+import com.aliyun.oss.model.MultipartUploadListing;
+import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.OSSObjectSummary;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.PartListing;
+import com.aliyun.oss.model.PartSummary;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartRequest;
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.aliyun.oss.blobstore.OssStats.Operation;
+import org.elasticsearch.aliyun.oss.service.AsyncOssService;
+import org.elasticsearch.aliyun.oss.service.BoundedAsyncOssService;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.aliyun.oss.service.OssExecutors;
 import org.elasticsearch.aliyun.oss.service.OssService;
+import org.elasticsearch.common.CheckedConsumer;
+import org.elasticsearch.common.CheckedRunnable;
 import org.elasticsearch.common.blobstore.BlobContainer;
 import org.elasticsearch.common.blobstore.BlobMetaData;
 import org.elasticsearch.common.blobstore.BlobPath;
@@ -24,6 +63,9 @@ import org.elasticsearch.common.blobstore.BlobStore;
 import org.elasticsearch.common.blobstore.BlobStoreException;
 import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
 import org.elasticsearch.common.collect.MapBuilder;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.utils.PermissionHelper;
 
 /**
@@ -32,46 +74,215 @@ import org.elasticsearch.utils.PermissionHelper;
  */
 public class OssBlobStore implements BlobStore {
 
+    /**
+     * Makes OSS reject a put or multipart upload if the object already exists.
+     */
+    static final String FORBID_OVERWRITE_HEADER = "x-oss-forbid-overwrite";
+    /**
+     * Largest page OSS returns for a single list request.
+     */
+    static final int LIST_MAX_KEYS = 1000;
+    static final String DELIMITER = "/";
+    /**
+     * Error codes of requests rejected because of the request rate
+     */
+    static final Set<String> THROTTLE_ERROR_CODES =
+        Collections.unmodifiableSet(new HashSet<>(Arrays.asList("SlowDown", "ServiceUnavailable")));
+    /**
+     * Shard data is only compressed if its first block compresses to at most this share of its size
+     */
+    static final double MAX_COMPRESSION_RATIO = 0.9;
+
     private final OssService client;
+    /**
+     * Sends the requests that are fanned out without holding a thread each, the client itself if it is
+     * asynchronous
+     */
+    private final AsyncOssService asyncClient;
     private final String bucket;
+    private final long multipartUploadThreshold;
+    private final long multipartCopyThreshold;
+    private final long multipartPartSize;
+    private final UploadBufferPool uploadBufferPool;
+    private final boolean compressData;
+    private final int compressionConcurrency;
+    private final MultipartUploader multipartUploader;
+    private final long downloadRangeSize;
+    private final int downloadConcurrency;
+    /**
+     * Most bytes of a blob read ahead of the reader, 0 if read-ahead is disabled
+     */
+    private final long readAheadSize;
+    private final int downloadMaxRetries;
+    private final int deleteConcurrency;
+    private final int blobLookupConcurrency;
+    private final OssExecutors executors;
+    /**
+     * Runs the parts of multipart transfers, the number of parts in flight is bounded per transfer.
+     */
+    private final ExecutorService transferExecutor;
+    /**
+     * Fetches listing pages in the background, so that they do not wait behind transfers
+     */
+    private final ExecutorService metadataExecutor;
+    private final OssStats stats;
+    private final RequestRateGovernor rateGovernor;
+    private final int throttleMaxRetries;
+    private final TimeValue staleUploadMaxAge;
+    private final SetOnce<StaleUploadSweeper> staleUploadSweeper = new SetOnce<>();
+    private final long metadataCacheSize;
+    private final SetOnce<MetadataBlobCache> metadataCache = new SetOnce<>();
+    /**
+     * Listings of the containers of this blob store, null if the container cache is disabled
+     */
+    private final ContainerListingCache containerListingCache;
+    /**
+     * Hedges slow GET requests, null if hedged reads are disabled
+     */
+    private final HedgedReader hedgedReader;
 
     public OssBlobStore(String bucket, OssService client) {
+        this(bucket, client, Settings.EMPTY, new OssStats());
+    }
+
+    public OssBlobStore(String bucket, OssService client, Settings repositorySettings) {
+        this(bucket, client, repositorySettings, new OssStats());
+    }
+
+    public OssBlobStore(String bucket, OssService client, Settings repositorySettings, OssStats stats) {
+        this(bucket, client, repositorySettings, stats, OssExecutors.newPrivate());
+    }
+
+    /**
+     * @param executors executors of the transfers and background requests, shut down with the blob store if
+     *                  they are private
+     */
+    public OssBlobStore(String bucket, OssService client, Settings repositorySettings, OssStats stats,
+        OssExecutors executors) {
         this.client = client;
+        this.executors = executors;
         this.bucket = bucket;
+        this.stats = stats;
+        this.rateGovernor = new RequestRateGovernor(OssClientSettings.MAX_REQUEST_RATE.get(repositorySettings));
+        this.throttleMaxRetries = OssClientSettings.THROTTLE_MAX_RETRIES.get(repositorySettings);
         if (!doesBucketExist(bucket)) {
             throw new BlobStoreException("bucket does not exist");
         }
+        this.multipartUploadThreshold =
+            OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.get(repositorySettings).getBytes();
+        this.transferExecutor = executors.transfer();
+        this.metadataExecutor = executors.metadata();
+        this.multipartCopyThreshold = OssClientSettings.MULTIPART_COPY_THRESHOLD.get(repositorySettings).getBytes();
+        this.multipartPartSize = OssClientSettings.MULTIPART_PART_SIZE.get(repositorySettings).getBytes();
+        this.compressData = OssClientSettings.COMPRESS_DATA.get(repositorySettings);
+        this.compressionConcurrency = OssClientSettings.COMPRESSION_CONCURRENCY.get(repositorySettings);
+        this.uploadBufferPool = new UploadBufferPool(
+            OssClientSettings.UPLOAD_BUFFER_POOL_SIZE.get(repositorySettings).getBytes(), stats);
+        this.multipartUploader = new MultipartUploader(this, transferExecutor, uploadBufferPool,
+            multipartPartSize,
+            OssClientSettings.MULTIPART_COPY_PART_SIZE.get(repositorySettings).getBytes(),
+            OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY.get(repositorySettings),
+            OssClientSettings.MULTIPART_PART_MAX_RETRIES.get(repositorySettings));
+        this.asyncClient = client instanceof AsyncOssService ? (AsyncOssService)client
+            : new BoundedAsyncOssService(client, transferExecutor, metadataExecutor,
+                OssClientSettings.MAX_IN_FLIGHT_REQUESTS.get(repositorySettings));
+        this.downloadRangeSize = OssClientSettings.DOWNLOAD_RANGE_SIZE.get(repositorySettings).getBytes();
+        this.downloadConcurrency = OssClientSettings.DOWNLOAD_CONCURRENCY.get(repositorySettings);
+        this.readAheadSize = OssClientSettings.READ_AHEAD_SIZE.get(repositorySettings).getBytes();
+        this.downloadMaxRetries = OssClientSettings.DOWNLOAD_MAX_RETRIES.get(repositorySettings);
+        this.deleteConcurrency = OssClientSettings.DELETE_CONCURRENCY.get(repositorySettings);
+        this.blobLookupConcurrency = OssClientSettings.BLOB_LOOKUP_CONCURRENCY.get(repositorySettings);
+        this.staleUploadMaxAge = OssClientSettings.STALE_UPLOAD_MAX_AGE.get(repositorySettings);
+        this.metadataCacheSize = OssClientSettings.METADATA_CACHE_SIZE.get(repositorySettings).getBytes();
+        TimeValue containerCacheTtl = OssClientSettings.CONTAINER_CACHE_TTL.get(repositorySettings);
+        this.containerListingCache = containerCacheTtl.millis() > 0 ? new ContainerListingCache(containerCacheTtl,
+            OssClientSettings.CONTAINER_CACHE_MAX_BLOBS.get(repositorySettings)) : null;
+        this.hedgedReader = OssClientSettings.HEDGED_READS.get(repositorySettings) ? new HedgedReader(client, stats,
+            OssClientSettings.HEDGED_READ_PERCENTILE.get(repositorySettings),
+            OssClientSettings.HEDGED_READ_MIN_DELAY.get(repositorySettings),
+            OssClientSettings.HEDGED_READ_MAX_FRACTION.get(repositorySettings)) : null;
     }
 
     public String getBucket() {
         return this.bucket;
     }
 
+    public OssStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the cache of container listings, or null if it is disabled
+     */
+    ContainerListingCache getContainerListingCache() {
+        return containerListingCache;
+    }
+
     @Override
     public BlobContainer blobContainer(BlobPath blobPath) {
         return new OssBlobContainer(blobPath, this);
     }
 
+    /**
+     * Deletes all blobs under the given path. Batches of keys are deleted concurrently while the
+     * following listing pages are still being fetched.
+     */
     @Override
     public void delete(BlobPath blobPath) throws IOException {
-        DeleteObjectsRequest deleteRequest = new DeleteObjectsRequest(bucket);
-        Map<String, BlobMetaData> blobs = listBlobsByPrefix(blobPath.buildAsString(), null);
-        List<String> toBeDeletedBlobs = new ArrayList<>();
-        Iterator<String> blobNameIterator = blobs.keySet().iterator();
-        while (blobNameIterator.hasNext()) {
-            String blobName = blobNameIterator.next();
-            toBeDeletedBlobs.add(blobPath.buildAsString() + blobName);
-            if (toBeDeletedBlobs.size() > DeleteObjectsRequest.DELETE_OBJECTS_ONETIME_LIMIT / 2
-                || !blobNameIterator.hasNext()) {
-                deleteRequest.setKeys(toBeDeletedBlobs);
-                deleteObjects(deleteRequest);
-                toBeDeletedBlobs.clear();
-            }
+        String keyPath = blobPath.buildAsString();
+        if (containerListingCache != null) {
+            containerListingCache.invalidateByPrefix(keyPath);
+        }
+        try (BulkDeleter deleter = new BulkDeleter(this, deleteConcurrency)) {
+            forEachBlob(keyPath, true, summary -> deleter.add(summary.getKey()));
+            deleter.finish();
+        } finally {
+            // after the deletes, so blobs read while they were deleted are not cached
+            invalidateCachedByPrefix(keyPath);
+        }
+    }
+
+    /**
+     * Starts aborting, in the background, the multipart uploads under the given path which are older than the
+     * stale upload max age. Does nothing if the max age is zero.
+     *
+     * @param basePath path of the repository
+     */
+    public void startStaleUploadSweep(BlobPath basePath) {
+        if (staleUploadMaxAge.millis() > 0) {
+            StaleUploadSweeper sweeper =
+                new StaleUploadSweeper(this, basePath.buildAsString(), staleUploadMaxAge.millis());
+            staleUploadSweeper.set(sweeper);
+            sweeper.start();
+        }
+    }
+
+    /**
+     * Starts caching the immutable metadata blobs read from the repository on disk, in a new directory
+     * under the given one. Does nothing if the metadata cache size is zero.
+     *
+     * @param parentDirectory directory the cache directory is created in
+     */
+    public void startMetadataCache(Path parentDirectory) throws IOException {
+        if (metadataCacheSize > 0) {
+            Files.createDirectories(parentDirectory);
+            Path directory = Files.createTempDirectory(parentDirectory, bucket + "-");
+            metadataCache.set(new MetadataBlobCache(directory, metadataCacheSize, stats));
         }
     }
 
     @Override
     public void close() {
+        if (staleUploadSweeper.get() != null) {
+            staleUploadSweeper.get().close();
+        }
+        if (metadataCache.get() != null) {
+            metadataCache.get().close();
+        }
+        if (hedgedReader != null) {
+            hedgedReader.close();
+        }
+        executors.close();
         client.shutdown();
     }
 
@@ -83,32 +294,75 @@ public class OssBlobStore implements BlobStore {
      */
     boolean doesBucketExist(String bucketName) {
         try {
-            return doPrivilegedAndRefreshClient(() -> this.client.doesBucketExist(bucketName));
+            return doPrivileged(Operation.HEAD, () -> this.client.doesBucketExist(bucketName));
         } catch (IOException e) {
             throw new BlobStoreException("do privileged has failed", e);
         }
     }
 
     /**
-     * List all blobs in the bucket which have a prefix
+     * List the blobs directly under a path which have a prefix, blobs in nested paths are not included
      *
-     * @param prefix prefix of the blobs to list
+     * @param keyPath path of the blobs to list
+     * @param prefix  prefix of the blobs to list
      * @return a map of blob names and their metadata
      */
     Map<String, BlobMetaData> listBlobsByPrefix(String keyPath, String prefix) throws IOException {
         MapBuilder<String, BlobMetaData> blobsBuilder = MapBuilder.newMapBuilder();
+        forEachBlobByPrefix(keyPath, prefix, blob -> blobsBuilder.put(blob.name(), blob));
+        return blobsBuilder.immutableMap();
+    }
+
+    /**
+     * Passes the blobs directly under a path which have a prefix to a consumer, one listing page at a time,
+     * so at most two pages are held in memory whatever the number of blobs.
+     *
+     * @param keyPath  path of the blobs to list
+     * @param prefix   prefix of the blobs to list
+     * @param consumer receives the metadata of each blob, named relative to the path
+     */
+    void forEachBlobByPrefix(String keyPath, String prefix, CheckedConsumer<BlobMetaData, IOException> consumer)
+        throws IOException {
         String actualPrefix = keyPath + (prefix == null ? StringUtils.EMPTY : prefix);
-        String nextMarker = null;
-        ObjectListing blobs;
-        do {
-            blobs = listBlobs(actualPrefix, nextMarker);
-            for (OSSObjectSummary summary : blobs.getObjectSummaries()) {
-                String blobName = summary.getKey().substring(keyPath.length());
-                blobsBuilder.put(blobName, new PlainBlobMetaData(blobName, summary.getSize()));
+        forEachBlob(actualPrefix, false, summary -> {
+            String blobName = summary.getKey().substring(keyPath.length());
+            consumer.accept(new PlainBlobMetaData(blobName, summary.getSize()));
+        });
+    }
+
+    /**
+     * Passes the blobs which have a prefix to a consumer. Pages of {@link #LIST_MAX_KEYS} keys are listed,
+     * the next page is fetched in the background while the current one is consumed.
+     *
+     * @param actualPrefix prefix of the keys to list
+     * @param recursive    whether to include keys below the next {@link #DELIMITER} after the prefix
+     * @param consumer     receives the summary of each blob
+     */
+    void forEachBlob(String actualPrefix, boolean recursive, CheckedConsumer<OSSObjectSummary, IOException> consumer)
+        throws IOException {
+        final String delimiter = recursive ? null : DELIMITER;
+        ObjectListing page = listBlobs(actualPrefix, null, delimiter);
+        while (true) {
+            Future<ObjectListing> nextPage = null;
+            if (page.isTruncated()) {
+                final String nextMarker = page.getNextMarker();
+                nextPage = metadataExecutor.submit(() -> listBlobs(actualPrefix, nextMarker, delimiter));
             }
-            nextMarker = blobs.getNextMarker();
-        } while (blobs.isTruncated());
-        return blobsBuilder.immutableMap();
+            try {
+                for (OSSObjectSummary summary : page.getObjectSummaries()) {
+                    consumer.accept(summary);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (nextPage != null) {
+                    nextPage.cancel(true);
+                }
+                throw e;
+            }
+            if (nextPage == null) {
+                return;
+            }
+            page = await(nextPage);
+        }
     }
 
     /**
@@ -116,11 +370,13 @@ public class OssBlobStore implements BlobStore {
      *
      * @param actualPrefix actual prefix of the blobs to list
      * @param nextMarker   blobs next marker
+     * @param delimiter    if not null, keys containing it after the prefix are grouped instead of listed
      * @return {@link ObjectListing}
      */
-    ObjectListing listBlobs(String actualPrefix, String nextMarker) throws IOException {
-        return doPrivilegedAndRefreshClient(() -> this.client.listObjects(
+    ObjectListing listBlobs(String actualPrefix, String nextMarker, String delimiter) throws IOException {
+        return doPrivileged(Operation.LIST, () -> this.client.listObjects(
             new ListObjectsRequest(bucket).withPrefix(actualPrefix).withMarker(nextMarker)
+                .withDelimiter(delimiter).withMaxKeys(LIST_MAX_KEYS)
         ));
     }
 
@@ -130,7 +386,33 @@ public class OssBlobStore implements BlobStore {
      * @param deleteRequest {@link DeleteObjectsRequest}
      */
     void deleteObjects(DeleteObjectsRequest deleteRequest) throws IOException {
-        doPrivilegedAndRefreshClient(() -> this.client.deleteObjects(deleteRequest));
+        doPrivileged(Operation.DELETE, () -> this.client.deleteObjects(deleteRequest));
+    }
+
+    /**
+     * Deletes a batch of blobs like {@link #deleteObjects(DeleteObjectsRequest)} without waiting for OSS
+     */
+    CompletableFuture<DeleteObjectsResult> deleteObjectsAsync(DeleteObjectsRequest deleteRequest) {
+        return doAsync(Operation.DELETE, () -> asyncClient.deleteObjectsAsync(deleteRequest));
+    }
+
+    /**
+     * Looks up the metadata of the object of a blob without waiting for OSS
+     */
+    CompletableFuture<ObjectMetadata> getObjectMetadataAsync(String blobName) {
+        return doAsync(Operation.HEAD, () -> asyncClient.getObjectMetadataAsync(bucket, blobName));
+    }
+
+    /**
+     * Looks up which of the given blobs of a container exist and their sizes, with listing pages where the
+     * names are dense among the keys and with concurrent HEAD requests where they are sparse
+     *
+     * @param keyPath   path of the container
+     * @param blobNames names of the blobs, relative to the path
+     * @return metadata of the blobs that exist by name, missing blobs are left out
+     */
+    Map<String, BlobMetaData> lookupBlobs(String keyPath, Collection<String> blobNames) throws IOException {
+        return new BlobLookup(this, blobLookupConcurrency).lookup(keyPath, blobNames);
     }
 
     /**
@@ -140,67 +422,617 @@ public class OssBlobStore implements BlobStore {
      * @return true if the blob exists, false otherwise
      */
     boolean blobExists(String blobName) throws OSSException, ClientException, IOException {
-        return doPrivilegedAndRefreshClient(() -> this.client.doesObjectExist(bucket, blobName));
+        return doPrivileged(Operation.HEAD, () -> this.client.doesObjectExist(bucket, blobName));
     }
 
     /**
-     * Returns an {@link java.io.InputStream} for a given blob
+     * Returns an {@link java.io.InputStream} for a given blob. Blobs larger than the download range size
+     * are fetched as concurrent byte ranges, whose GET requests are hedged if hedged reads are enabled, and
+     * other blobs are read ahead of the caller. Downloads interrupted by a failed connection are resumed
+     * where they stopped.
+     * Immutable metadata blobs are served from the metadata cache when it is enabled.
      *
      * @param blobName name of the blob
      * @return an InputStream
      */
     InputStream readBlob(String blobName) throws OSSException, ClientException, IOException {
-        return doPrivilegedAndRefreshClient(() -> this.client.getObject(bucket, blobName).getObjectContent());
+        MetadataBlobCache cache = metadataCache.get();
+        if (cache != null && MetadataBlobCache.isCacheable(blobName)) {
+            return cache.readBlob(blobName, () -> openBlob(blobName));
+        }
+        return openBlob(blobName);
+    }
+
+    private void invalidateCached(String blobName) {
+        MetadataBlobCache cache = metadataCache.get();
+        if (cache != null) {
+            cache.invalidate(blobName);
+        }
+    }
+
+    private void invalidateCachedByPrefix(String keyPrefix) {
+        MetadataBlobCache cache = metadataCache.get();
+        if (cache != null) {
+            cache.invalidateByPrefix(keyPrefix);
+        }
+    }
+
+    private InputStream openBlob(String blobName) throws OSSException, ClientException, IOException {
+        final OSSObject object;
+        final InputStream content;
+        if (downloadConcurrency <= 1) {
+            object = doPrivileged(Operation.GET, () -> getObject(new GetObjectRequest(bucket, blobName)));
+            long blobSize = object.getObjectMetadata().getContentLength();
+            content = readAhead(blobName,
+                resumable(blobName, object.getObjectContent(), 0, blobSize - 1, object.getObjectMetadata().getETag()),
+                blobSize);
+        } else {
+            object = doPrivileged(Operation.GET,
+                () -> getObject(new GetObjectRequest(bucket, blobName).withRange(0, downloadRangeSize - 1)));
+            long blobSize = getTotalLength(object.getObjectMetadata());
+            String eTag = object.getObjectMetadata().getETag();
+            if (blobSize <= downloadRangeSize) {
+                content = readAhead(blobName, resumable(blobName, object.getObjectContent(), 0, blobSize - 1, eTag),
+                    blobSize);
+            } else {
+                content = new ParallelRangeInputStream(this, transferExecutor, blobName,
+                    resumable(blobName, object.getObjectContent(), 0, downloadRangeSize - 1, eTag), eTag, blobSize,
+                    downloadRangeSize, downloadConcurrency);
+            }
+        }
+        InputStream counted = stats.countDownload(content);
+        return isCompressed(object.getObjectMetadata()) ? new BlockDecompressingInputStream(counted) : counted;
+    }
+
+    /**
+     * Wraps the content of a response in a {@link ResumableInputStream}, unless resuming downloads is disabled
+     * or the size of the blob is unknown
+     *
+     * @param end last byte of the range of the response, inclusive
+     */
+    private InputStream resumable(String blobName, InputStream content, long start, long end, String eTag) {
+        if (downloadMaxRetries <= 0 || end < start) {
+            return content;
+        }
+        return new ResumableInputStream(this, blobName, content, start, end, eTag, downloadMaxRetries);
+    }
+
+    /**
+     * Wraps the content of a response in a {@link ReadAheadInputStream}, unless read-ahead is disabled or the
+     * blob fits in a single read. Parallel range downloads already read ahead and are not wrapped.
+     *
+     * @param blobSize size of the blob, -1 if unknown
+     */
+    private InputStream readAhead(String blobName, InputStream content, long blobSize) {
+        if (readAheadSize <= 0 || (blobSize >= 0 && blobSize <= ReadAheadInputStream.CHUNK_SIZE)) {
+            return content;
+        }
+        return new ReadAheadInputStream(content, transferExecutor, blobName, readAheadSize);
+    }
+
+    /**
+     * Sends a GET request, hedged if hedged reads are enabled
+     */
+    private OSSObject getObject(GetObjectRequest request) throws IOException {
+        return hedgedReader == null ? this.client.getObject(request) : hedgedReader.getObject(request);
+    }
+
+    /**
+     * Returns true if the blob was written compressed by {@link BlockCompressingInputStream}
+     */
+    static boolean isCompressed(ObjectMetadata metadata) {
+        return metadata != null && BlockCompressingInputStream.CODEC.equals(
+            metadata.getUserMetadata().get(BlockCompressingInputStream.CODEC_METADATA_KEY));
+    }
+
+    /**
+     * Returns true for the blobs holding the files of shard snapshots, which ES names with a {@code __} prefix
+     */
+    static boolean isShardData(String blobName) {
+        return blobName.startsWith("__", blobName.lastIndexOf(DELIMITER) + 1);
+    }
+
+    /**
+     * Reads a byte range of a blob into memory
+     *
+     * @param blobName name of the blob
+     * @param start    first byte of the range
+     * @param end      last byte of the range, inclusive
+     * @param eTag     if not null, the ETag the blob must still match
+     * @return content of the range
+     */
+    byte[] readBlobRange(String blobName, long start, long end, String eTag)
+        throws OSSException, ClientException, IOException {
+        GetObjectRequest request = rangeRequest(blobName, start, end, eTag);
+        final int length = (int)(end - start + 1);
+        return doPrivileged(Operation.GET, () -> {
+            try (InputStream stream = resumable(blobName, getObject(request).getObjectContent(), start, end, eTag)) {
+                byte[] range = new byte[length];
+                if (Streams.readFully(stream, range, 0, length) != length) {
+                    throw new IOException("range [" + start + "-" + end + "] of [" + blobName + "] ended early");
+                }
+                return range;
+            }
+        });
+    }
+
+    /**
+     * Opens a byte range of a blob, to resume a download interrupted at its first byte
+     *
+     * @param end  last byte of the range, inclusive
+     * @param eTag if not null, the ETag the blob must still match
+     * @return content of the range
+     */
+    InputStream openBlobRange(String blobName, long start, long end, String eTag) throws IOException {
+        GetObjectRequest request = rangeRequest(blobName, start, end, eTag);
+        return doPrivileged(Operation.GET, () -> getObject(request)).getObjectContent();
+    }
+
+    private GetObjectRequest rangeRequest(String blobName, long start, long end, String eTag) {
+        GetObjectRequest request = new GetObjectRequest(bucket, blobName).withRange(start, end);
+        if (eTag != null) {
+            request.setMatchingETagConstraints(Collections.singletonList(eTag));
+        }
+        return request;
     }
 
     /**
-     * Writes a blob in the bucket.
+     * Returns the total size of a blob from the Content-Range header of a range response. OSS answers a range
+     * ending past the end of the blob with the whole blob and no Content-Range, its Content-Length is then the
+     * size of the blob.
      *
-     * @param inputStream content of the blob to be written
-     * @param blobSize    expected size of the blob to be written
+     * @param metadata metadata of the response
+     * @return the blob size, or -1 if the response does not tell it
      */
-    void writeBlob(String blobName, InputStream inputStream, long blobSize)
+    static long getTotalLength(ObjectMetadata metadata) {
+        for (Map.Entry<String, Object> header : metadata.getRawMetadata().entrySet()) {
+            if ("Content-Range".equalsIgnoreCase(header.getKey())) {
+                String contentRange = header.getValue().toString();
+                String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+                return "*".equals(total) ? -1 : Long.parseLong(total);
+            }
+        }
+        return metadata.getRawMetadata().containsKey("Content-Length") ? metadata.getContentLength() : -1;
+    }
+
+    /**
+     * Writes a blob in the bucket. Blobs larger than the multipart upload threshold are uploaded
+     * as concurrent parts, smaller ones with a single put request. Shard data is compressed if data
+     * compression is enabled and its first block compresses well enough.
+     *
+     * @param inputStream     content of the blob to be written
+     * @param blobSize        expected size of the blob to be written
+     * @param forbidOverwrite whether OSS should reject the write if the blob already exists
+     * @return size of the object stored in the bucket, smaller than the blob size if it was compressed
+     */
+    long writeBlob(String blobName, InputStream inputStream, long blobSize, boolean forbidOverwrite)
         throws OSSException, ClientException, IOException {
+        try {
+            if (compressData && blobSize > 0 && isShardData(blobName)) {
+                final int sampleLength = (int)Math.min(BlockCompressingInputStream.BLOCK_SIZE, blobSize);
+                final byte[] sample = new byte[sampleLength];
+                if (Streams.readFully(inputStream, sample, 0, sampleLength) != sampleLength) {
+                    throw new IOException("unexpected end of stream while reading [" + blobName + "]");
+                }
+                byte[] firstBlock = BlockCompressingInputStream.compressBlock(sample, sampleLength);
+                if (firstBlock.length <= sampleLength * MAX_COMPRESSION_RATIO) {
+                    return writeCompressedBlob(blobName, new BlockCompressingInputStream(firstBlock, inputStream,
+                        blobSize - sampleLength, transferExecutor, compressionConcurrency), blobSize, forbidOverwrite);
+                }
+                inputStream = new SequenceInputStream(new ByteArrayInputStream(sample), inputStream);
+            }
+            if (blobSize > multipartUploadThreshold) {
+                multipartUploader.upload(blobName, inputStream, blobSize, true, forbidOverwrite, null);
+            } else if (blobSize <= multipartPartSize) {
+                try (UploadBuffer buffer = uploadBufferPool.read(inputStream, (int)blobSize)) {
+                    if (buffer.length() != blobSize) {
+                        throw new IOException("unexpected end of stream while reading [" + blobName + "]");
+                    }
+                    putBlob(blobName, buffer, forbidOverwrite, null);
+                }
+            } else {
+                putBlob(blobName, inputStream, blobSize, forbidOverwrite);
+            }
+            return blobSize;
+        } finally {
+            // after the write, so the previous blob read while it was overwritten is not cached
+            invalidateCached(blobName);
+        }
+    }
+
+    /**
+     * Writes a compressed blob, as a multipart upload unless it can be compressed into a single part
+     *
+     * @param compressed content of the blob being compressed
+     * @param rawSize    size of the blob before compression
+     * @return size of the compressed object
+     */
+    private long writeCompressedBlob(String blobName, BlockCompressingInputStream compressed, long rawSize,
+        boolean forbidOverwrite) throws IOException {
+        final Map<String, String> userMetadata = Collections.singletonMap(
+            BlockCompressingInputStream.CODEC_METADATA_KEY, BlockCompressingInputStream.CODEC);
+        final long maxCompressedSize = BlockCompressingInputStream.maxCompressedLength(rawSize);
+        try {
+            if (maxCompressedSize > multipartPartSize) {
+                multipartUploader.upload(blobName, compressed, maxCompressedSize, false, forbidOverwrite,
+                    userMetadata);
+            } else {
+                try (UploadBuffer buffer = uploadBufferPool.read(compressed, (int)maxCompressedSize)) {
+                    putBlob(blobName, buffer, forbidOverwrite, userMetadata);
+                }
+            }
+            return compressed.getCompressedLength();
+        } finally {
+            compressed.close();
+        }
+    }
+
+    /**
+     * Writes a buffered blob with a single put request, which can always be retried
+     *
+     * @param userMetadata user metadata of the blob, or null
+     */
+    private void putBlob(String blobName, UploadBuffer content, boolean forbidOverwrite,
+        Map<String, String> userMetadata) throws IOException {
+        ObjectMetadata meta = putObjectMetadata(content.length(), forbidOverwrite);
+        if (userMetadata != null) {
+            meta.setUserMetadata(userMetadata);
+        }
+        doPrivileged(Operation.PUT, () -> this.client.putObject(bucket, blobName, content.newInputStream(), meta));
+        stats.onUpload(content.length());
+    }
+
+    private static ObjectMetadata putObjectMetadata(long blobSize, boolean forbidOverwrite) {
         ObjectMetadata meta = new ObjectMetadata();
         meta.setContentLength(blobSize);
-        doPrivilegedAndRefreshClient(() -> this.client.putObject(bucket, blobName, inputStream, meta));
+        if (forbidOverwrite) {
+            meta.setHeader(FORBID_OVERWRITE_HEADER, Boolean.TRUE.toString());
+        }
+        return meta;
     }
 
     /**
-     * Deletes a blob in the bucket
+     * Writes a blob larger than the upload buffers with a single put request, streaming it from the input stream
+     */
+    private void putBlob(String blobName, InputStream inputStream, long blobSize, boolean forbidOverwrite)
+        throws IOException {
+        ObjectMetadata meta = putObjectMetadata(blobSize, forbidOverwrite);
+        // the request can only be retried if the stream can be read again
+        CheckedRunnable<IOException> beforeRetry = null;
+        if (inputStream.markSupported()) {
+            inputStream.mark((int)Math.min(Integer.MAX_VALUE, blobSize + 1));
+            beforeRetry = inputStream::reset;
+        }
+        doPrivileged(Operation.PUT, () -> this.client.putObject(bucket, blobName, inputStream, meta), beforeRetry);
+        stats.onUpload(blobSize);
+    }
+
+    /**
+     * Initiates a multipart upload for a blob
+     *
+     * @param blobName        name of the blob
+     * @param forbidOverwrite whether OSS should reject the upload if the blob already exists
+     * @param userMetadata    user metadata of the blob, or null
+     * @return the upload id
+     */
+    String initiateMultipartUpload(String blobName, boolean forbidOverwrite, Map<String, String> userMetadata)
+        throws OSSException, ClientException, IOException {
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, blobName);
+        if (userMetadata != null) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setUserMetadata(userMetadata);
+            request.setObjectMetadata(metadata);
+        }
+        if (forbidOverwrite) {
+            request.addHeader(FORBID_OVERWRITE_HEADER, Boolean.TRUE.toString());
+        }
+        return doPrivileged(Operation.MULTIPART, () -> this.client.initiateMultipartUpload(request).getUploadId());
+    }
+
+    /**
+     * Uploads one part of a multipart upload
+     *
+     * @param blobName   name of the blob
+     * @param uploadId   id of the multipart upload
+     * @param partNumber number of the part, starting from 1
+     * @param content    content of the part
+     * @return the {@link PartETag} of the uploaded part
+     */
+    PartETag uploadPart(String blobName, String uploadId, int partNumber, UploadBuffer content)
+        throws OSSException, ClientException, IOException {
+        PartETag partETag = doPrivileged(Operation.UPLOAD_PART, () -> this.client.uploadPart(new UploadPartRequest(
+            bucket, blobName, uploadId, partNumber, content.newInputStream(), content.length())).getPartETag());
+        stats.onUpload(content.length());
+        return partETag;
+    }
+
+    /**
+     * Uploads one part of a multipart upload by copying a byte range of another blob on the server side
+     *
+     * @param sourceBlobName name of the blob to copy from
+     * @param sourceETag     ETag the blob to copy from must still match
+     * @param blobName       name of the blob being uploaded
+     * @param uploadId       id of the multipart upload
+     * @param partNumber     number of the part, starting from 1
+     * @param start          first byte of the range to copy
+     * @param length         length of the range to copy
+     * @return the {@link PartETag} of the copied part
+     */
+    PartETag uploadPartCopy(String sourceBlobName, String sourceETag, String blobName, String uploadId,
+        int partNumber, long start, long length) throws OSSException, ClientException, IOException {
+        UploadPartCopyRequest request =
+            new UploadPartCopyRequest(bucket, sourceBlobName, bucket, blobName, uploadId, partNumber, start, length);
+        request.setMatchingETagConstraints(Collections.singletonList(sourceETag));
+        return doPrivileged(Operation.COPY, () -> this.client.uploadPartCopy(request).getPartETag());
+    }
+
+    /**
+     * Completes a multipart upload
+     *
+     * @param blobName        name of the blob
+     * @param uploadId        id of the multipart upload
+     * @param partETags       ETags of all the uploaded parts
+     * @param forbidOverwrite whether OSS should reject the upload if the blob already exists
+     */
+    void completeMultipartUpload(String blobName, String uploadId, List<PartETag> partETags,
+        boolean forbidOverwrite) throws OSSException, ClientException, IOException {
+        CompleteMultipartUploadRequest request =
+            new CompleteMultipartUploadRequest(bucket, blobName, uploadId, partETags);
+        if (forbidOverwrite) {
+            request.addHeader(FORBID_OVERWRITE_HEADER, Boolean.TRUE.toString());
+        }
+        doPrivileged(Operation.MULTIPART, () -> this.client.completeMultipartUpload(request));
+    }
+
+    /**
+     * Lists the parts OSS holds for a multipart upload
      *
      * @param blobName name of the blob
+     * @param uploadId id of the multipart upload
+     * @return summaries of the uploaded parts by part number
      */
-    void deleteBlob(String blobName) throws OSSException, ClientException, IOException {
-        doPrivilegedAndRefreshClient(() -> {
-            this.client.deleteObject(bucket, blobName);
+    Map<Integer, PartSummary> listParts(String blobName, String uploadId)
+        throws OSSException, ClientException, IOException {
+        Map<Integer, PartSummary> parts = new HashMap<>();
+        Integer partNumberMarker = null;
+        do {
+            ListPartsRequest request = new ListPartsRequest(bucket, blobName, uploadId);
+            request.setMaxParts(LIST_MAX_KEYS);
+            request.setPartNumberMarker(partNumberMarker);
+            PartListing listing = doPrivileged(Operation.LIST, () -> this.client.listParts(request));
+            for (PartSummary part : listing.getParts()) {
+                parts.put(part.getPartNumber(), part);
+            }
+            partNumberMarker = listing.isTruncated() ? listing.getNextPartNumberMarker() : null;
+        } while (partNumberMarker != null);
+        return parts;
+    }
+
+    /**
+     * Passes the multipart uploads which were neither completed nor aborted to a consumer
+     *
+     * @param keyPrefix prefix of the keys of the uploads
+     * @param consumer  receives each upload
+     */
+    void forEachMultipartUpload(String keyPrefix, CheckedConsumer<MultipartUpload, IOException> consumer)
+        throws OSSException, ClientException, IOException {
+        String keyMarker = null;
+        String uploadIdMarker = null;
+        while (true) {
+            ListMultipartUploadsRequest request = new ListMultipartUploadsRequest(bucket);
+            request.setPrefix(keyPrefix);
+            request.setMaxUploads(LIST_MAX_KEYS);
+            request.setKeyMarker(keyMarker);
+            request.setUploadIdMarker(uploadIdMarker);
+            MultipartUploadListing listing =
+                doPrivileged(Operation.LIST, () -> this.client.listMultipartUploads(request));
+            for (MultipartUpload upload : listing.getMultipartUploads()) {
+                consumer.accept(upload);
+            }
+            if (!listing.isTruncated()) {
+                return;
+            }
+            keyMarker = listing.getNextKeyMarker();
+            uploadIdMarker = listing.getNextUploadIdMarker();
+        }
+    }
+
+    /**
+     * Aborts a multipart upload, releasing its uploaded parts
+     *
+     * @param blobName name of the blob
+     * @param uploadId id of the multipart upload
+     */
+    void abortMultipartUpload(String blobName, String uploadId) throws OSSException, ClientException, IOException {
+        doPrivileged(Operation.MULTIPART, () -> {
+            this.client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, blobName, uploadId));
             return null;
         });
     }
 
+    /**
+     * Deletes a blob in the bucket
+     *
+     * @param blobName name of the blob
+     */
+    void deleteBlob(String blobName) throws OSSException, ClientException, IOException {
+        try {
+            doPrivileged(Operation.DELETE, () -> {
+                this.client.deleteObject(bucket, blobName);
+                return null;
+            });
+        } finally {
+            invalidateCached(blobName);
+        }
+    }
+
+    /**
+     * Moves a blob by copying it on the server side and deleting the source. Blobs larger than the
+     * multipart copy threshold are copied as concurrent parts.
+     *
+     * @param sourceBlobName name of the blob to move
+     * @param targetBlobName new name of the blob
+     */
     public void move(String sourceBlobName, String targetBlobName)
         throws OSSException, ClientException, IOException {
-        doPrivilegedAndRefreshClient(() -> {
-            this.client.copyObject(bucket, sourceBlobName, bucket, targetBlobName);
-            return null;
-        });
-        doPrivilegedAndRefreshClient(() -> {
+        try {
+            doMove(sourceBlobName, targetBlobName);
+        } finally {
+            invalidateCached(sourceBlobName);
+            invalidateCached(targetBlobName);
+        }
+    }
+
+    private void doMove(String sourceBlobName, String targetBlobName)
+        throws OSSException, ClientException, IOException {
+        ObjectMetadata metadata = doPrivileged(Operation.HEAD,
+            () -> this.client.getObjectMetadata(bucket, sourceBlobName));
+        if (metadata.getContentLength() > multipartCopyThreshold) {
+            multipartUploader.copy(sourceBlobName, targetBlobName, metadata.getContentLength(), metadata.getETag());
+        } else {
+            doPrivileged(Operation.COPY, () -> {
+                this.client.copyObject(bucket, sourceBlobName, bucket, targetBlobName);
+                return null;
+            });
+        }
+        if (containerListingCache != null) {
+            int target = targetBlobName.lastIndexOf(DELIMITER) + 1;
+            containerListingCache.onWrite(targetBlobName.substring(0, target), targetBlobName.substring(target),
+                metadata.getContentLength());
+        }
+        doPrivileged(Operation.DELETE, () -> {
             this.client.deleteObject(bucket, sourceBlobName);
             return null;
         });
+        if (containerListingCache != null) {
+            int source = sourceBlobName.lastIndexOf(DELIMITER) + 1;
+            containerListingCache.onDelete(sourceBlobName.substring(0, source), sourceBlobName.substring(source));
+        }
     }
 
     /**
-     * Executes a {@link PrivilegedExceptionAction} with privileges enabled.
+     * Waits for a transfer submitted to the transfer executor, unwrapping its failure.
      */
-    <T> T doPrivilegedAndRefreshClient(PrivilegedExceptionAction<T> operation) throws IOException {
-        refreshStsOssClient();
-        return PermissionHelper.doPrivileged(operation);
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a transfer");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
-    private void refreshStsOssClient() throws IOException {
-        if (this.client.isUseStsOssClient()) {
-            this.client.refreshStsOssClient();//refresh token to avoid expired
+    /**
+     * Returns the failure of a request sent with the asynchronous client, unwrapped from the
+     * {@link CompletionException} of dependent futures
+     */
+    static Exception unwrapCompletion(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof Exception ? (Exception)cause : new CompletionException(cause);
+    }
+
+    /**
+     * Returns true if OSS rejected a request because the bucket or the account is over its request rate
+     */
+    static boolean isThrottled(Exception e) {
+        return e instanceof OSSException && THROTTLE_ERROR_CODES.contains(((OSSException)e).getErrorCode());
+    }
+
+    /**
+     * Executes a {@link PrivilegedExceptionAction} with privileges enabled and records it in the repository
+     * stats. STS credentials are renewed in the background by the client, so no request waits on a token
+     * refresh. Requests wait for the rate governor and are retried if OSS throttles them.
+     */
+    <T> T doPrivileged(Operation operation, PrivilegedExceptionAction<T> action) throws IOException {
+        return doPrivileged(operation, action, () -> {});
+    }
+
+    /**
+     * Executes a {@link PrivilegedExceptionAction} like {@link #doPrivileged(Operation, PrivilegedExceptionAction)}
+     *
+     * @param beforeRetry prepares the action to be executed again, or null if it cannot be retried
+     */
+    <T> T doPrivileged(Operation operation, PrivilegedExceptionAction<T> action,
+        CheckedRunnable<IOException> beforeRetry) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            rateGovernor.acquire(operation);
+            final long start = System.nanoTime();
+            try {
+                T result = PermissionHelper.doPrivileged(action);
+                stats.onSuccess(operation, System.nanoTime() - start);
+                rateGovernor.onSuccess(operation);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                stats.onFailure(operation, System.nanoTime() - start, e);
+                if (!isThrottled(e)) {
+                    throw e;
+                }
+                rateGovernor.onThrottled(operation);
+                if (beforeRetry == null || attempt >= throttleMaxRetries) {
+                    throw e;
+                }
+            }
+            stats.onRetry();
+            RequestRateGovernor.backoff(attempt + 1);
+            beforeRetry.run();
+        }
+    }
+
+    /**
+     * Sends a request with the asynchronous client, recording it and retrying it if OSS throttles it like
+     * {@link #doPrivileged(Operation, PrivilegedExceptionAction)} does, without holding the calling thread
+     * while it is in flight. The calling thread only waits for the rate governor, backoffs before retries run
+     * on the transfer executor. Recorded latencies include the time spent queued for a slot and for a thread.
+     */
+    <T> CompletableFuture<T> doAsync(Operation operation, Supplier<CompletableFuture<T>> request) {
+        return doAsync(operation, request, 0);
+    }
+
+    private <T> CompletableFuture<T> doAsync(Operation operation, Supplier<CompletableFuture<T>> request,
+        int attempt) {
+        try {
+            rateGovernor.acquire(operation);
+        } catch (IOException e) {
+            return failedFuture(e);
         }
+        final long start = System.nanoTime();
+        return request.get().handle((result, t) -> {
+            if (t == null) {
+                stats.onSuccess(operation, System.nanoTime() - start);
+                rateGovernor.onSuccess(operation);
+                return CompletableFuture.completedFuture(result);
+            }
+            Exception e = unwrapCompletion(t);
+            stats.onFailure(operation, System.nanoTime() - start, e);
+            if (!isThrottled(e)) {
+                return OssBlobStore.<T>failedFuture(e);
+            }
+            rateGovernor.onThrottled(operation);
+            if (attempt >= throttleMaxRetries) {
+                return OssBlobStore.<T>failedFuture(e);
+            }
+            stats.onRetry();
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    RequestRateGovernor.backoff(attempt + 1);
+                } catch (IOException backoffFailure) {
+                    throw new CompletionException(backoffFailure);
+                }
+            }, transferExecutor).thenCompose(ignored -> doAsync(operation, request, attempt + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
     }
 }
@@ -0,0 +1,284 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Counters and latency histograms of the OSS requests of one repository.
+ */
+public class OssStats implements ToXContentFragment {
+
+    /**
+     * Kinds of OSS requests
+     */
+    public enum Operation {
+        GET, HEAD, LIST, PUT, UPLOAD_PART, MULTIPART, DELETE, COPY;
+
+        String fieldName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder metadataCacheHits = new LongAdder();
+    private final LongAdder metadataCacheMisses = new LongAdder();
+    private final LongAdder containerCacheHits = new LongAdder();
+    private final LongAdder containerCacheMisses = new LongAdder();
+    private final LongAdder uploadBufferAllocatedBytes = new LongAdder();
+    private final LongAdder uploadBufferReusedBytes = new LongAdder();
+    private final LongAdder uploadBufferPooledBytes = new LongAdder();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder hedgesOverBudget = new LongAdder();
+
+    public OssStats() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationStats());
+        }
+    }
+
+    /**
+     * Records a request that completed
+     *
+     * @param operation   kind of the request
+     * @param tookInNanos time from sending the request to receiving its response
+     */
+    void onSuccess(Operation operation, long tookInNanos) {
+        operations.get(operation).record(tookInNanos);
+    }
+
+    /**
+     * Records a request that failed
+     *
+     * @param operation   kind of the request
+     * @param tookInNanos time from sending the request to receiving its failure
+     * @param e           the failure
+     */
+    void onFailure(Operation operation, long tookInNanos, Exception e) {
+        OperationStats stats = operations.get(operation);
+        stats.record(tookInNanos);
+        stats.failures.increment();
+        if (OssBlobStore.isThrottled(e)) {
+            stats.throttled.increment();
+        }
+    }
+
+    void onRetry() {
+        retries.increment();
+    }
+
+    void onMetadataCacheHit() {
+        metadataCacheHits.increment();
+    }
+
+    void onMetadataCacheMiss() {
+        metadataCacheMisses.increment();
+    }
+
+    void onContainerCacheHit() {
+        containerCacheHits.increment();
+    }
+
+    void onContainerCacheMiss() {
+        containerCacheMisses.increment();
+    }
+
+    void onUploadBufferAllocated(long bytes) {
+        uploadBufferAllocatedBytes.add(bytes);
+    }
+
+    void onUploadBufferReused(long bytes) {
+        uploadBufferReusedBytes.add(bytes);
+    }
+
+    /**
+     * @param bytes bytes of chunks added to the upload buffer pool, negative if they were taken from it
+     */
+    void onUploadBufferPooled(long bytes) {
+        uploadBufferPooledBytes.add(bytes);
+    }
+
+    void onHedgeSent() {
+        hedgesSent.increment();
+    }
+
+    /**
+     * Records a hedge whose response arrived before the one of the request it hedged
+     */
+    void onHedgeWon() {
+        hedgesWon.increment();
+    }
+
+    /**
+     * Records a slow request that was not hedged because hedges were over their share of the requests
+     */
+    void onHedgeOverBudget() {
+        hedgesOverBudget.increment();
+    }
+
+    void onUpload(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    /**
+     * Wraps a stream of a blob being downloaded so its bytes are counted as they are read
+     */
+    InputStream countDownload(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    bytesDownloaded.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesDownloaded.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    public long getCount(Operation operation) {
+        return operations.get(operation).count.sum();
+    }
+
+    public long getFailures(Operation operation) {
+        return operations.get(operation).failures.sum();
+    }
+
+    public long getThrottled(Operation operation) {
+        return operations.get(operation).throttled.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getMetadataCacheHits() {
+        return metadataCacheHits.sum();
+    }
+
+    public long getMetadataCacheMisses() {
+        return metadataCacheMisses.sum();
+    }
+
+    public long getContainerCacheHits() {
+        return containerCacheHits.sum();
+    }
+
+    public long getContainerCacheMisses() {
+        return containerCacheMisses.sum();
+    }
+
+    public long getUploadBufferAllocatedBytes() {
+        return uploadBufferAllocatedBytes.sum();
+    }
+
+    public long getUploadBufferReusedBytes() {
+        return uploadBufferReusedBytes.sum();
+    }
+
+    public long getUploadBufferPooledBytes() {
+        return uploadBufferPooledBytes.sum();
+    }
+
+    public long getHedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    public long getHedgesOverBudget() {
+        return hedgesOverBudget.sum();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("operations");
+        for (Map.Entry<Operation, OperationStats> operation : operations.entrySet()) {
+            builder.startObject(operation.getKey().fieldName());
+            operation.getValue().toXContent(builder);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.field("bytes_downloaded", getBytesDownloaded());
+        builder.field("bytes_uploaded", getBytesUploaded());
+        builder.field("retries", getRetries());
+        builder.startObject("metadata_cache");
+        builder.field("hits", getMetadataCacheHits());
+        builder.field("misses", getMetadataCacheMisses());
+        builder.endObject();
+        builder.startObject("container_cache");
+        builder.field("hits", getContainerCacheHits());
+        builder.field("misses", getContainerCacheMisses());
+        builder.endObject();
+        builder.startObject("upload_buffers");
+        builder.field("allocated_bytes", getUploadBufferAllocatedBytes());
+        builder.field("reused_bytes", getUploadBufferReusedBytes());
+        builder.field("pooled_bytes", getUploadBufferPooledBytes());
+        builder.endObject();
+        builder.startObject("hedged_reads");
+        builder.field("sent", getHedgesSent());
+        builder.field("won", getHedgesWon());
+        builder.field("over_budget", getHedgesOverBudget());
+        builder.endObject();
+        return builder;
+    }
+
+    private static class OperationStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        /**
+         * Latencies in microseconds, resized as needed with 2 significant digits
+         */
+        private final Histogram latencies = new ConcurrentHistogram(2);
+
+        void record(long tookInNanos) {
+            count.increment();
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(tookInNanos));
+        }
+
+        void toXContent(XContentBuilder builder) throws IOException {
+            builder.field("count", count.sum());
+            builder.field("failures", failures.sum());
+            builder.field("throttled", throttled.sum());
+            builder.startObject("latency_millis");
+            builder.field("p50", latencies.getValueAtPercentile(50) / 1000.0);
+            builder.field("p99", latencies.getValueAtPercentile(99) / 1000.0);
+            builder.field("max", latencies.getMaxValue() / 1000.0);
+            builder.endObject();
+        }
+    }
+}
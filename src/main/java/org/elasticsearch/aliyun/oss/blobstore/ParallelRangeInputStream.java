@@ -0,0 +1,152 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An {@link InputStream} over a blob that is downloaded as consecutive byte ranges. The first range is
+ * read from the already opened response while up to {@code concurrency} following ranges are fetched
+ * in the background, so at most {@code concurrency} range buffers are held in memory. Ranges are
+ * handed to the reader strictly in order.
+ */
+class ParallelRangeInputStream extends InputStream {
+    private static final Logger logger = LogManager.getLogger(ParallelRangeInputStream.class);
+
+    private final OssBlobStore blobStore;
+    private final ExecutorService executor;
+    private final String blobName;
+    private final String eTag;
+    private final long blobSize;
+    private final long rangeSize;
+    private final int concurrency;
+    private final Deque<Future<byte[]>> pendingRanges = new ArrayDeque<>();
+    private long nextRangeStart;
+    private InputStream current;
+    /**
+     * Bytes of the current range not read yet, used to detect a truncated first range
+     */
+    private long currentRemaining;
+    private boolean closed;
+
+    /**
+     * @param firstRange content of the range starting at offset 0, of {@code rangeSize} bytes
+     * @param eTag       ETag of the blob, the following ranges must match it
+     * @param blobSize   total size of the blob
+     */
+    ParallelRangeInputStream(OssBlobStore blobStore, ExecutorService executor, String blobName,
+        InputStream firstRange, String eTag, long blobSize, long rangeSize, int concurrency) {
+        this.blobStore = blobStore;
+        this.executor = executor;
+        this.blobName = blobName;
+        this.eTag = eTag;
+        this.blobSize = blobSize;
+        this.rangeSize = rangeSize;
+        this.concurrency = concurrency;
+        this.current = firstRange;
+        this.currentRemaining = Math.min(rangeSize, blobSize);
+        this.nextRangeStart = rangeSize;
+        for (int i = 0; i < concurrency; i++) {
+            if (scheduleNextRange() == false) {
+                break;
+            }
+        }
+    }
+
+    private boolean scheduleNextRange() {
+        if (nextRangeStart >= blobSize) {
+            return false;
+        }
+        final long start = nextRangeStart;
+        final long end = Math.min(start + rangeSize, blobSize) - 1;
+        nextRangeStart = end + 1;
+        pendingRanges.addLast(executor.submit(() -> blobStore.readBlobRange(blobName, start, end, eTag)));
+        return true;
+    }
+
+    /**
+     * Moves to the next range once the current one is exhausted.
+     *
+     * @return false if the whole blob has been read
+     */
+    private boolean nextRange() throws IOException {
+        if (currentRemaining != 0) {
+            throw new IOException("range of [" + blobName + "] ended [" + currentRemaining + "] bytes early");
+        }
+        Future<byte[]> next = pendingRanges.pollFirst();
+        if (next == null) {
+            return false;
+        }
+        current.close();
+        byte[] range = OssBlobStore.await(next);
+        current = new ByteArrayInputStream(range);
+        currentRemaining = range.length;
+        scheduleNextRange();
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream of [" + blobName + "] is closed");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        do {
+            int b = current.read();
+            if (b != -1) {
+                currentRemaining--;
+                return b;
+            }
+        } while (nextRange());
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        do {
+            int read = current.read(b, off, len);
+            if (read > 0) {
+                currentRemaining -= read;
+                return read;
+            }
+        } while (nextRange());
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Future<byte[]> pending;
+        while ((pending = pendingRanges.pollFirst()) != null) {
+            pending.cancel(true);
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            logger.debug("failed to close range stream of [{}] : {}", blobName, e.getMessage());
+        }
+    }
+}
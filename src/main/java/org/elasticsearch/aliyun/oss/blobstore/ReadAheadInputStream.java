@@ -0,0 +1,246 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An {@link InputStream} that reads ahead of its reader: chunks of the source stream are read on an
+ * executor into a window of buffered bytes while the reader consumes the previous ones, so that the wait
+ * for the network overlaps with the work of the reader, such as writing restored files to disk.
+ * <p>
+ * The window adapts to the reader. It doubles, up to {@code maxWindow}, whenever the reader has to wait
+ * for bytes, and halves when the reader keeps leaving it full, so a slow reader does not hold memory it
+ * gains nothing from. The background read stops once the window is full and starts again when the reader
+ * has consumed half of it, so no thread is held while the reader is busy.
+ */
+class ReadAheadInputStream extends InputStream {
+    private static final Logger logger = LogManager.getLogger(ReadAheadInputStream.class);
+
+    /**
+     * Most bytes read from the source at once
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * Window of a new stream, if the largest window is not smaller
+     */
+    static final int INITIAL_WINDOW = 4 * CHUNK_SIZE;
+    /**
+     * Times in a row the background read fills the window without the reader waiting before it halves
+     */
+    private static final int FULL_WINDOWS_BEFORE_SHRINK = 4;
+
+    private final InputStream source;
+    private final Executor executor;
+    private final String blobName;
+    private final long minWindow;
+    private final long maxWindow;
+    private final Object mutex = new Object();
+    private final Deque<byte[]> chunks = new ArrayDeque<>();
+    private long bufferedBytes;
+    private long window;
+    private int fullWindows;
+    private boolean fetching;
+    private boolean endOfSource;
+    private Exception failure;
+    private boolean closed;
+    /**
+     * Chunk being read by the reader and the position in it, only accessed by the reader
+     */
+    private byte[] current;
+    private int position;
+
+    /**
+     * @param maxWindow most bytes read ahead of the reader
+     */
+    ReadAheadInputStream(InputStream source, Executor executor, String blobName, long maxWindow) {
+        this.source = source;
+        this.executor = executor;
+        this.blobName = blobName;
+        this.maxWindow = Math.max(CHUNK_SIZE, maxWindow);
+        this.minWindow = Math.min(INITIAL_WINDOW, this.maxWindow);
+        this.window = minWindow;
+        synchronized (mutex) {
+            maybeFetch();
+        }
+    }
+
+    /**
+     * Starts the background read if it is not running and less than half of the window is buffered
+     */
+    private void maybeFetch() {
+        assert Thread.holdsLock(mutex);
+        if (fetching || endOfSource || failure != null || closed || bufferedBytes > window / 2) {
+            return;
+        }
+        fetching = true;
+        try {
+            executor.execute(this::fetch);
+        } catch (RejectedExecutionException e) {
+            fetching = false;
+            failure = e;
+        }
+    }
+
+    private void fetch() {
+        while (true) {
+            synchronized (mutex) {
+                if (closed) {
+                    fetching = false;
+                    return;
+                }
+                if (bufferedBytes >= window) {
+                    if (++fullWindows >= FULL_WINDOWS_BEFORE_SHRINK && window > minWindow) {
+                        window = Math.max(minWindow, window / 2);
+                        fullWindows = 0;
+                    }
+                    fetching = false;
+                    return;
+                }
+            }
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read;
+            try {
+                read = source.read(chunk, 0, chunk.length);
+            } catch (IOException | RuntimeException e) {
+                synchronized (mutex) {
+                    if (closed == false) {
+                        failure = e;
+                    }
+                    fetching = false;
+                    mutex.notifyAll();
+                }
+                return;
+            }
+            synchronized (mutex) {
+                if (read < 0) {
+                    endOfSource = true;
+                    fetching = false;
+                    mutex.notifyAll();
+                    return;
+                }
+                if (read > 0 && closed == false) {
+                    chunks.addLast(read == chunk.length ? chunk : Arrays.copyOf(chunk, read));
+                    bufferedBytes += read;
+                    mutex.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes {@link #current} a chunk with bytes left to read, waiting for the background read if needed
+     *
+     * @return false if the source has been read entirely
+     */
+    private boolean nextChunk() throws IOException {
+        if (closed) {
+            throw new IOException("stream of [" + blobName + "] is closed");
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        synchronized (mutex) {
+            boolean waited = false;
+            while (chunks.isEmpty()) {
+                if (failure != null) {
+                    if (failure instanceof IOException) {
+                        throw (IOException)failure;
+                    }
+                    throw new IOException("failed to read ahead [" + blobName + "]", failure);
+                }
+                if (endOfSource) {
+                    return false;
+                }
+                if (waited == false) {
+                    // the reader is faster than the source, reading further ahead lets it wait less
+                    waited = true;
+                    window = Math.min(maxWindow, window * 2);
+                    fullWindows = 0;
+                    maybeFetch();
+                }
+                try {
+                    mutex.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while reading ahead [" + blobName + "]");
+                }
+            }
+            current = chunks.pollFirst();
+            position = 0;
+            bufferedBytes -= current.length;
+            maybeFetch();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (nextChunk() == false) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (nextChunk() == false) {
+            return -1;
+        }
+        int read = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("stream of [" + blobName + "] is closed");
+        }
+        synchronized (mutex) {
+            long available = bufferedBytes + (current == null ? 0 : current.length - position);
+            return (int)Math.min(Integer.MAX_VALUE, available);
+        }
+    }
+
+    /**
+     * @return the current number of bytes read ahead at most
+     */
+    long getWindow() {
+        synchronized (mutex) {
+            return window;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mutex) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks.clear();
+            bufferedBytes = 0;
+            mutex.notifyAll();
+        }
+        current = null;
+        try {
+            // also ends a background read blocked on the source
+            source.close();
+        } catch (IOException e) {
+            logger.debug("failed to close the source of [{}] : {}", blobName, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.aliyun.oss.blobstore.OssStats.Operation;
+
+/**
+ * Limits the rate of the OSS requests of a repository with one token bucket per class of requests:
+ * reads (get, head, list), writes (put, parts, copies) and deletes. The rate of a class is halved
+ * when OSS throttles one of its requests and grows back slowly, by about one request per second
+ * every second, while requests succeed.
+ */
+class RequestRateGovernor {
+    private static final Logger logger = LogManager.getLogger(RequestRateGovernor.class);
+
+    /**
+     * Lowest rate a class of requests is throttled down to, in requests per second
+     */
+    static final double MIN_RATE = 1;
+    /**
+     * Throttle responses closer than this to the last decrease are taken as the same congestion event
+     */
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Map<Operation, TokenBucket> buckets = new EnumMap<>(Operation.class);
+
+    /**
+     * @param maxRate highest and initial rate of each class of requests, in requests per second
+     */
+    RequestRateGovernor(int maxRate) {
+        TokenBucket reads = new TokenBucket("read", maxRate);
+        TokenBucket writes = new TokenBucket("write", maxRate);
+        TokenBucket deletes = new TokenBucket("delete", maxRate);
+        buckets.put(Operation.GET, reads);
+        buckets.put(Operation.HEAD, reads);
+        buckets.put(Operation.LIST, reads);
+        buckets.put(Operation.PUT, writes);
+        buckets.put(Operation.UPLOAD_PART, writes);
+        buckets.put(Operation.MULTIPART, writes);
+        buckets.put(Operation.COPY, writes);
+        buckets.put(Operation.DELETE, deletes);
+    }
+
+    /**
+     * Waits until a request of the given kind may be sent
+     */
+    void acquire(Operation operation) throws IOException {
+        long waitNanos = buckets.get(operation).reserve();
+        if (waitNanos > 0) {
+            sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+        }
+    }
+
+    void onSuccess(Operation operation) {
+        buckets.get(operation).increase();
+    }
+
+    void onThrottled(Operation operation) {
+        buckets.get(operation).decrease();
+    }
+
+    /**
+     * Current rate of the class of the given kind of requests, in requests per second
+     */
+    double getRate(Operation operation) {
+        return buckets.get(operation).getRate();
+    }
+
+    /**
+     * Waits before retrying a throttled request, with a jittered exponential backoff
+     *
+     * @param attempt number of the retry, starting from 1
+     */
+    static void backoff(int attempt) throws IOException {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to send a request");
+        }
+    }
+
+    private static class TokenBucket {
+        private final String name;
+        private final double maxRate;
+        private double rate;
+        /**
+         * Available tokens, negative when requests are waiting for tokens
+         */
+        private double tokens;
+        private long lastRefillNanos;
+        private long lastDecreaseNanos;
+
+        TokenBucket(String name, double maxRate) {
+            this.name = name;
+            this.maxRate = maxRate;
+            this.rate = maxRate;
+            this.tokens = maxRate;
+            this.lastRefillNanos = System.nanoTime();
+            this.lastDecreaseNanos = lastRefillNanos - DECREASE_INTERVAL_NANOS;
+        }
+
+        /**
+         * Takes a token, possibly in advance
+         *
+         * @return nanoseconds to wait before the token is available
+         */
+        synchronized long reserve() {
+            refill();
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long)(-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        synchronized void increase() {
+            if (rate < maxRate) {
+                refill();
+                rate = Math.min(maxRate, rate + 1 / rate);
+            }
+        }
+
+        synchronized void decrease() {
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos < DECREASE_INTERVAL_NANOS) {
+                return;
+            }
+            refill();
+            lastDecreaseNanos = now;
+            rate = Math.max(MIN_RATE, rate / 2);
+            tokens = Math.min(tokens, 0);
+            logger.debug("oss throttled {} requests, rate lowered to [{}] per second", name, rate);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + rate * (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An {@link InputStream} over a byte range of a blob that survives interrupted responses: it tracks the
+ * position of the last byte it returned, and if the response fails or ends early it sends a range GET
+ * from that position on and goes on reading from the new response. Resumed requests must match the ETag
+ * of the blob when it was first read, so a blob overwritten in between fails the read rather than mixing
+ * the content of two blobs. At most {@code maxRetries} requests are resumed per stream.
+ */
+class ResumableInputStream extends InputStream {
+    private static final Logger logger = LogManager.getLogger(ResumableInputStream.class);
+
+    private final OssBlobStore blobStore;
+    private final String blobName;
+    private final long end;
+    private final String eTag;
+    private final int maxRetries;
+    /**
+     * Response being read, replaced when a request is resumed and closed by {@link #close()} from any thread
+     */
+    private volatile InputStream current;
+    /**
+     * Offset in the blob of the next byte to return
+     */
+    private long position;
+    private int retries;
+    private volatile boolean closed;
+
+    /**
+     * @param content content of the response the range is first read from
+     * @param start   first byte of the range
+     * @param end     last byte of the range, inclusive
+     * @param eTag    ETag of the blob, null if it is unknown and resumed requests are not checked
+     */
+    ResumableInputStream(OssBlobStore blobStore, String blobName, InputStream content, long start, long end,
+        String eTag, int maxRetries) {
+        this.blobStore = blobStore;
+        this.blobName = blobName;
+        this.current = content;
+        this.position = start;
+        this.end = end;
+        this.eTag = eTag;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream of [" + blobName + "] is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position > end) {
+            return -1;
+        }
+        while (true) {
+            try {
+                int read = current.read(b, off, (int)Math.min(len, end - position + 1));
+                if (read == -1) {
+                    throw new EOFException("response of [" + blobName + "] ended at [" + position
+                        + "] before the end of the range at [" + end + "]");
+                }
+                position += read;
+                return read;
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the failed response by a new one starting at the current position
+     *
+     * @param failure failure of the current response, thrown if no request can be resumed anymore
+     */
+    private void resume(IOException failure) throws IOException {
+        closeCurrent();
+        while (true) {
+            if (closed || retries >= maxRetries) {
+                throw failure;
+            }
+            retries++;
+            logger.debug("resuming download of [{}] at [{}] after failure [{}/{}] : {}", blobName, position, retries,
+                maxRetries, failure.getMessage());
+            blobStore.getStats().onRetry();
+            RequestRateGovernor.backoff(retries);
+            if (closed) {
+                throw failure;
+            }
+            try {
+                current = blobStore.openBlobRange(blobName, position, end, eTag);
+                if (closed) {
+                    // closed while the request was sent, close() may have missed the new response
+                    closeCurrent();
+                    throw failure;
+                }
+                return;
+            } catch (OSSException e) {
+                if (OSSErrorCode.PRECONDITION_FAILED.equals(e.getErrorCode())) {
+                    IOException changed = new IOException("[" + blobName + "] changed while it was read", e);
+                    changed.addSuppressed(failure);
+                    throw changed;
+                }
+                e.addSuppressed(failure);
+                throw e;
+            } catch (ClientException e) {
+                // the endpoint could not be reached, which may not last
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private void closeCurrent() {
+        try {
+            current.close();
+        } catch (IOException e) {
+            logger.debug("failed to close the response of [{}] : {}", blobName, e.getMessage());
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current.close();
+    }
+}
@@ -0,0 +1,84 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * Periodically aborts the multipart uploads under the repository path which were initiated longer ago than
+ * the maximum age, such as the uploads of nodes that crashed or were stopped while writing a blob, so their
+ * parts stop taking up storage.
+ */
+class StaleUploadSweeper implements Closeable {
+    private static final Logger logger = LogManager.getLogger(StaleUploadSweeper.class);
+
+    static final long SWEEP_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final OssBlobStore blobStore;
+    private final String keyPrefix;
+    private final long maxAgeMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param blobStore    blob store the uploads belong to
+     * @param keyPrefix    prefix of the keys of the uploads to sweep
+     * @param maxAgeMillis age after which an upload is aborted
+     */
+    StaleUploadSweeper(OssBlobStore blobStore, String keyPrefix, long maxAgeMillis) {
+        this.blobStore = blobStore;
+        this.keyPrefix = keyPrefix;
+        this.maxAgeMillis = maxAgeMillis;
+        this.scheduler =
+            Executors.newSingleThreadScheduledExecutor(EsExecutors.daemonThreadFactory("oss_upload_sweeper"));
+    }
+
+    /**
+     * Schedules the sweeps, the first one after a random delay so the nodes of a cluster do not all sweep at once
+     */
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::sweep, ThreadLocalRandom.current().nextLong(SWEEP_INTERVAL_MS),
+            SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Aborts the uploads older than the maximum age
+     *
+     * @return number of aborted uploads
+     */
+    long sweep() {
+        final long initiatedBefore = System.currentTimeMillis() - maxAgeMillis;
+        final AtomicLong aborted = new AtomicLong();
+        try {
+            blobStore.forEachMultipartUpload(keyPrefix, upload -> {
+                if (upload.getInitiated() != null && upload.getInitiated().getTime() < initiatedBefore) {
+                    try {
+                        blobStore.abortMultipartUpload(upload.getKey(), upload.getUploadId());
+                        aborted.incrementAndGet();
+                    } catch (Exception e) {
+                        logger.debug("failed to abort stale multipart upload [{}] of [{}] : {}", upload.getUploadId(),
+                            upload.getKey(), e.getMessage());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("failed to list multipart uploads under [{}] : {}", keyPrefix, e.getMessage());
+        }
+        if (aborted.get() > 0) {
+            logger.info("aborted [{}] multipart uploads under [{}] initiated more than [{}] ms ago", aborted.get(),
+                keyPrefix, maxAgeMillis);
+        }
+        return aborted.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
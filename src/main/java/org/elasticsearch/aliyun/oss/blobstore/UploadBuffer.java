@@ -0,0 +1,115 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.lease.Releasable;
+
+/**
+ * Content of a part or a small blob held in chunks of an {@link UploadBufferPool}. The content can be read
+ * again as many times as a request is retried, and its streams support mark and reset so that the OSS client
+ * can retry on its own without buffering the content a second time. The chunks go back to the pool once the
+ * buffer is closed, its streams must not be read after that.
+ */
+class UploadBuffer implements Releasable {
+
+    private final UploadBufferPool pool;
+    private final List<byte[]> chunks;
+    private final int length;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    UploadBuffer(UploadBufferPool pool, List<byte[]> chunks, int length) {
+        this.pool = pool;
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Returns a new stream over the whole content
+     */
+    InputStream newInputStream() {
+        return new ChunkedInputStream();
+    }
+
+    /**
+     * Returns the MD5 digest of the content, which OSS returns as the ETag of a part
+     */
+    byte[] md5() {
+        MessageDigest digest = MessageDigests.md5();
+        for (int offset = 0, i = 0; offset < length; offset += UploadBufferPool.CHUNK_SIZE, i++) {
+            digest.update(chunks.get(i), 0, Math.min(UploadBufferPool.CHUNK_SIZE, length - offset));
+        }
+        return digest.digest();
+    }
+
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            chunks.forEach(pool::release);
+        }
+    }
+
+    private class ChunkedInputStream extends InputStream {
+        private int position;
+        private int mark;
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            byte b = chunks.get(position / UploadBufferPool.CHUNK_SIZE)[position % UploadBufferPool.CHUNK_SIZE];
+            position++;
+            return b & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int chunkOffset = position % UploadBufferPool.CHUNK_SIZE;
+            int read = Math.min(len, Math.min(UploadBufferPool.CHUNK_SIZE - chunkOffset, length - position));
+            System.arraycopy(chunks.get(position / UploadBufferPool.CHUNK_SIZE), chunkOffset, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.io.Streams;
+
+/**
+ * Pool of the fixed size chunks that upload buffers are made of, so that the parts and small blobs of a
+ * snapshot reuse the same memory instead of allocating new arrays for every request. At most
+ * {@code maxPooledBytes} of free chunks are kept, chunks released beyond that are left to the garbage
+ * collector, and so are the chunks of buffers that are never released.
+ */
+class UploadBufferPool {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final long maxPooledBytes;
+    private final OssStats stats;
+    private final Deque<byte[]> chunks = new ConcurrentLinkedDeque<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * @param maxPooledBytes most bytes of free chunks kept in the pool, 0 disables pooling
+     * @param stats          stats the allocations, reuses and pooled bytes of chunks are recorded in
+     */
+    UploadBufferPool(long maxPooledBytes, OssStats stats) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.stats = stats;
+    }
+
+    /**
+     * Reads up to {@code maxLength} bytes of the stream into a buffer, less only if the stream ends first
+     */
+    UploadBuffer read(InputStream inputStream, int maxLength) throws IOException {
+        final List<byte[]> read = new ArrayList<>((maxLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        int length = 0;
+        boolean success = false;
+        try {
+            while (length < maxLength) {
+                byte[] chunk = acquire();
+                read.add(chunk);
+                int chunkLength = Math.min(CHUNK_SIZE, maxLength - length);
+                int readLength = Streams.readFully(inputStream, chunk, 0, chunkLength);
+                length += readLength;
+                if (readLength < chunkLength) {
+                    break;
+                }
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                read.forEach(this::release);
+            }
+        }
+        return new UploadBuffer(this, read, length);
+    }
+
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private byte[] acquire() {
+        byte[] chunk = chunks.pollFirst();
+        if (chunk != null) {
+            pooledBytes.addAndGet(-CHUNK_SIZE);
+            stats.onUploadBufferPooled(-CHUNK_SIZE);
+            stats.onUploadBufferReused(CHUNK_SIZE);
+            return chunk;
+        }
+        stats.onUploadBufferAllocated(CHUNK_SIZE);
+        return new byte[CHUNK_SIZE];
+    }
+
+    void release(byte[] chunk) {
+        if (pooledBytes.addAndGet(CHUNK_SIZE) <= maxPooledBytes) {
+            chunks.offerFirst(chunk);
+            stats.onUploadBufferPooled(CHUNK_SIZE);
+        } else {
+            pooledBytes.addAndGet(-CHUNK_SIZE);
+        }
+    }
+}
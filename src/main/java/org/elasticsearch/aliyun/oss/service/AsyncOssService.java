@@ -0,0 +1,117 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+import com.aliyun.oss.model.CopyObjectResult;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
+
+/**
+ * Asynchronous companion of {@link OssService}. Requests return at once with a future that completes once
+ * OSS answers, so that a caller can keep many requests in flight without holding one of its own threads for
+ * each of them. At most {@link #getMaxInFlightRequests()} requests are handed to the threads sending them at
+ * the same time, the others are queued in the order they were made. Failed requests complete their future
+ * exceptionally with the same {@link com.aliyun.oss.OSSException}, {@link com.aliyun.oss.ClientException} or
+ * {@link java.io.IOException} the blocking request throws.
+ */
+public interface AsyncOssService {
+
+    /**
+     * Export {@link OSSObject} with the range and constraints of the request.
+     *
+     * @param getObjectRequest request parameters {@link GetObjectRequest}
+     * @return future of the {@link OSSObject}, whose content must be closed after use
+     */
+    CompletableFuture<OSSObject> getObjectAsync(GetObjectRequest getObjectRequest);
+
+    /**
+     * Get the metadata of an object without its content.
+     *
+     * @param bucketName bucket name
+     * @param key        object key
+     * @return future of the object metadata
+     */
+    CompletableFuture<ObjectMetadata> getObjectMetadataAsync(String bucketName, String key);
+
+    /**
+     * Upload an object, the input must not be read by the caller until the future completes.
+     *
+     * @param bucketName Bucket name
+     * @param key        object key
+     * @param input      content of the object
+     * @param metadata   the meta-information of the object {@link ObjectMetadata}
+     * @return future of the {@link PutObjectResult}
+     */
+    CompletableFuture<PutObjectResult> putObjectAsync(String bucketName, String key, InputStream input,
+        ObjectMetadata metadata);
+
+    /**
+     * Upload one part of a multipart upload, the input of the request must not be read by the caller until
+     * the future completes.
+     *
+     * @param request request parameters {@link UploadPartRequest}
+     * @return future of the {@link UploadPartResult} containing the part ETag
+     */
+    CompletableFuture<UploadPartResult> uploadPartAsync(UploadPartRequest request);
+
+    /**
+     * List objects of a bucket.
+     *
+     * @param listObjectsRequest request information
+     * @return future of one page of {@link ObjectListing}
+     */
+    CompletableFuture<ObjectListing> listObjectsAsync(ListObjectsRequest listObjectsRequest);
+
+    /**
+     * Delete an object.
+     *
+     * @param bucketName Bucket name.
+     * @param key        Object key.
+     * @return future completed once the object is deleted
+     */
+    CompletableFuture<Void> deleteObjectAsync(String bucketName, String key);
+
+    /**
+     * Bulk delete objects.
+     *
+     * @param deleteObjectsRequest request parameters {@link DeleteObjectsRequest}
+     * @return future of the delete results
+     */
+    CompletableFuture<DeleteObjectsResult> deleteObjectsAsync(DeleteObjectsRequest deleteObjectsRequest);
+
+    /**
+     * Copy an object on the server side.
+     *
+     * @param sourceBucketName      the name of the bucket where the source object resides.
+     * @param sourceKey             key of source Object.
+     * @param destinationBucketName the name of the bucket where the target object is.
+     * @param destinationKey        key of the target Object.
+     * @return future of the {@link CopyObjectResult}
+     */
+    CompletableFuture<CopyObjectResult> copyObjectAsync(String sourceBucketName, String sourceKey,
+        String destinationBucketName, String destinationKey);
+
+    /**
+     * @return most requests handed to the threads sending them at the same time, running or waiting for a thread
+     */
+    int getMaxInFlightRequests();
+
+    /**
+     * @return number of requests running, sent to OSS and not answered yet
+     */
+    int getInFlightRequests();
+
+    /**
+     * @return number of requests waiting for a slot or for a thread to send them
+     */
+    int getQueuedRequests();
+}
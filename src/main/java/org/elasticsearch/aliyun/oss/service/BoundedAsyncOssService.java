@@ -0,0 +1,204 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.io.InputStream;
+import java.security.PrivilegedExceptionAction;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.model.CopyObjectResult;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
+import org.elasticsearch.utils.PermissionHelper;
+
+/**
+ * {@link AsyncOssService} sending the requests of a blocking {@link OssService} on executors, objects and
+ * parts on the transfer executor and listings, metadata and deletes on the metadata executor. The client
+ * blocks, so every running request still holds an executor thread: the requests running at once are bounded
+ * by the threads of the executors, which are shared by the repositories of the node. Requests beyond
+ * {@code maxInFlightRequests} are queued here rather than submitted, in the order they were made, so one
+ * repository cannot fill the queues of the executors and callers are never blocked. A request releases its
+ * slot before its future completes, so callbacks may send the next requests without waiting for a slot of
+ * their own.
+ */
+public class BoundedAsyncOssService implements AsyncOssService {
+
+    private final OssService client;
+    private final Executor transferExecutor;
+    private final Executor metadataExecutor;
+    private final int maxInFlightRequests;
+    /**
+     * Requests submitted to an executor and not completed yet, whether they run or wait for a thread
+     */
+    private final AtomicInteger submittedRequests = new AtomicInteger();
+    private final AtomicInteger runningRequests = new AtomicInteger();
+    /**
+     * Requests made and not running yet, whether they wait here or in the queue of an executor
+     */
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final Queue<Request<?>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param client              client the requests are sent with
+     * @param executor            executor all requests are sent on
+     * @param maxInFlightRequests most requests submitted to the executor at the same time
+     */
+    public BoundedAsyncOssService(OssService client, Executor executor, int maxInFlightRequests) {
+        this(client, executor, executor, maxInFlightRequests);
+    }
+
+    /**
+     * @param client              client the requests are sent with
+     * @param transferExecutor    executor the requests transferring object content are sent on
+     * @param metadataExecutor    executor the other requests are sent on
+     * @param maxInFlightRequests most requests submitted to the executors at the same time
+     */
+    public BoundedAsyncOssService(OssService client, Executor transferExecutor, Executor metadataExecutor,
+        int maxInFlightRequests) {
+        this.client = client;
+        this.transferExecutor = transferExecutor;
+        this.metadataExecutor = metadataExecutor;
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    @Override
+    public CompletableFuture<OSSObject> getObjectAsync(GetObjectRequest getObjectRequest) {
+        return submit(transferExecutor, () -> client.getObject(getObjectRequest));
+    }
+
+    @Override
+    public CompletableFuture<ObjectMetadata> getObjectMetadataAsync(String bucketName, String key) {
+        return submit(metadataExecutor, () -> client.getObjectMetadata(bucketName, key));
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResult> putObjectAsync(String bucketName, String key, InputStream input,
+        ObjectMetadata metadata) {
+        return submit(transferExecutor, () -> client.putObject(bucketName, key, input, metadata));
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResult> uploadPartAsync(UploadPartRequest request) {
+        return submit(transferExecutor, () -> client.uploadPart(request));
+    }
+
+    @Override
+    public CompletableFuture<ObjectListing> listObjectsAsync(ListObjectsRequest listObjectsRequest) {
+        return submit(metadataExecutor, () -> client.listObjects(listObjectsRequest));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteObjectAsync(String bucketName, String key) {
+        return submit(metadataExecutor, () -> {
+            client.deleteObject(bucketName, key);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<DeleteObjectsResult> deleteObjectsAsync(DeleteObjectsRequest deleteObjectsRequest) {
+        return submit(metadataExecutor, () -> client.deleteObjects(deleteObjectsRequest));
+    }
+
+    @Override
+    public CompletableFuture<CopyObjectResult> copyObjectAsync(String sourceBucketName, String sourceKey,
+        String destinationBucketName, String destinationKey) {
+        return submit(transferExecutor,
+            () -> client.copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey));
+    }
+
+    @Override
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return runningRequests.get();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    private <T> CompletableFuture<T> submit(Executor executor, PrivilegedExceptionAction<T> action) {
+        Request<T> request = new Request<>(executor, action);
+        queuedRequests.incrementAndGet();
+        queue.add(request);
+        sendQueued();
+        return request.future;
+    }
+
+    /**
+     * Submits queued requests while there are free slots. Called whenever a request is queued or a slot is
+     * released, so that no request stays queued while a slot is free.
+     */
+    private void sendQueued() {
+        while (!queue.isEmpty()) {
+            int submitted = submittedRequests.get();
+            if (submitted >= maxInFlightRequests) {
+                return;
+            }
+            if (!submittedRequests.compareAndSet(submitted, submitted + 1)) {
+                continue;
+            }
+            Request<?> request = queue.poll();
+            if (request == null) {
+                submittedRequests.decrementAndGet();
+                continue;
+            }
+            try {
+                request.executor.execute(request);
+            } catch (RejectedExecutionException e) {
+                submittedRequests.decrementAndGet();
+                queuedRequests.decrementAndGet();
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Request<T> implements Runnable {
+        private final Executor executor;
+        private final PrivilegedExceptionAction<T> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Request(Executor executor, PrivilegedExceptionAction<T> action) {
+            this.executor = executor;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            T result = null;
+            Exception failure = null;
+            queuedRequests.decrementAndGet();
+            runningRequests.incrementAndGet();
+            try {
+                result = PermissionHelper.doPrivileged(action);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                runningRequests.decrementAndGet();
+                submittedRequests.decrementAndGet();
+                sendQueued();
+            }
+            if (failure == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+}
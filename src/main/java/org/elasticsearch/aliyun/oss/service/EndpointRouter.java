@@ -0,0 +1,310 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * Routes requests between the clients of several endpoints of the same bucket, such as the VPC, classic
+ * network, public and accelerated endpoints. Each endpoint is scored by the latency of periodic probes and
+ * by the rate of requests failing to reach it, and requests go to the endpoint with the best score, in the
+ * configured order on ties. Another endpoint is only preferred once it scores clearly better, so that
+ * traffic does not flap between endpoints of similar latency.
+ * <p>
+ * An endpoint failing several requests in a row is skipped until a later probe or request succeeds, and
+ * requests which can be sent again are retried once on the next best endpoint. Error responses of OSS
+ * other than internal errors prove the endpoint works and do not count as failures.
+ *
+ * @param <C> type of the client of an endpoint
+ */
+class EndpointRouter<C> implements Closeable {
+    private static final Logger logger = LogManager.getLogger(EndpointRouter.class);
+
+    /**
+     * Weight of the latest probe or request in the moving averages of an endpoint
+     */
+    static final double EWMA_WEIGHT = 0.2;
+    /**
+     * Consecutive failures after which an endpoint is skipped
+     */
+    static final int MAX_CONSECUTIVE_FAILURES = 3;
+    /**
+     * Another endpoint is only preferred once its score is below this share of the score of the current one
+     */
+    static final double SWITCH_RATIO = 0.8;
+    private static final long DEFAULT_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<Endpoint<C>> endpoints;
+    private final Function<C, ?> probe;
+    private final long cooldownNanos;
+    private final ScheduledExecutorService prober;
+    private volatile Endpoint<C> preferred;
+
+    /**
+     * @param names         endpoints in order of preference on ties
+     * @param clientFactory creates the client of an endpoint
+     * @param probe         request sent to each endpoint to measure its latency
+     * @param probeInterval interval between probes, probes are disabled if zero or with a single endpoint
+     */
+    EndpointRouter(List<String> names, Function<String, C> clientFactory, Function<C, ?> probe,
+        TimeValue probeInterval) {
+        List<Endpoint<C>> endpoints = new ArrayList<>(names.size());
+        for (String name : names) {
+            endpoints.add(new Endpoint<>(name, clientFactory.apply(name)));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.preferred = endpoints.get(0);
+        this.probe = probe;
+        this.cooldownNanos = probeInterval.nanos() > 0 ? probeInterval.nanos() : DEFAULT_COOLDOWN_NANOS;
+        if (endpoints.size() > 1 && probeInterval.millis() > 0) {
+            this.prober =
+                Executors.newSingleThreadScheduledExecutor(EsExecutors.daemonThreadFactory("oss_endpoint_prober"));
+            this.prober.scheduleWithFixedDelay(this::probe, 0, probeInterval.millis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.prober = null;
+        }
+    }
+
+    /**
+     * Sends a request to the best endpoint
+     *
+     * @param request  request to send with the client of the endpoint
+     * @param failover whether the request can be sent again to another endpoint if it fails to reach the first
+     */
+    <T> T execute(Function<C, T> request, boolean failover) {
+        final Endpoint<C> endpoint = select();
+        try {
+            return execute(endpoint, request);
+        } catch (RuntimeException e) {
+            if (!failover || !isEndpointFailure(e) || endpoints.size() == 1) {
+                throw e;
+            }
+            final Endpoint<C> next = best(endpoint, System.nanoTime());
+            logger.debug("retrying request failed on endpoint [{}] on endpoint [{}] : {}", endpoint.name, next.name,
+                e.getMessage());
+            try {
+                return execute(next, request);
+            } catch (RuntimeException retryFailure) {
+                retryFailure.addSuppressed(e);
+                throw retryFailure;
+            }
+        }
+    }
+
+    private <T> T execute(Endpoint<C> endpoint, Function<C, T> request) {
+        try {
+            T result = request.apply(endpoint.client);
+            endpoint.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (isEndpointFailure(e)) {
+                endpoint.onFailure(cooldownNanos);
+            } else {
+                endpoint.onSuccess();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Probes every endpoint once, recording the latency of those that answer
+     */
+    void probe() {
+        for (Endpoint<C> endpoint : endpoints) {
+            final long start = System.nanoTime();
+            try {
+                probe.apply(endpoint.client);
+                endpoint.onProbe(System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                if (isEndpointFailure(e)) {
+                    logger.debug("probe of endpoint [{}] failed : {}", endpoint.name, e.getMessage());
+                    endpoint.onFailure(cooldownNanos);
+                } else {
+                    endpoint.onProbe(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the endpoint requests should go to: the available endpoint with the lowest score, unless the
+     * preferred one is still available and scores almost as well. If every endpoint is skipped, the one
+     * which is skipped for the shortest time left is returned, so that requests never fail without trying.
+     */
+    Endpoint<C> select() {
+        final long now = System.nanoTime();
+        final Endpoint<C> best = best(null, now);
+        final Endpoint<C> current = preferred;
+        if (current != best && best.isAvailable(now)) {
+            if (current.isAvailable(now) && best.score() > current.score() * SWITCH_RATIO) {
+                return current;
+            }
+            logger.info("switching oss endpoint from [{}] to [{}]", current.name, best.name);
+            preferred = best;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the available endpoint with the lowest score, or the skipped endpoint with the shortest time
+     * left if all are skipped
+     *
+     * @param excluded endpoint not to return, null to consider all of them
+     */
+    private Endpoint<C> best(Endpoint<C> excluded, long now) {
+        Endpoint<C> best = null;
+        for (Endpoint<C> endpoint : endpoints) {
+            if (endpoint != excluded && endpoint.isAvailable(now)
+                && (best == null || endpoint.score() < best.score())) {
+                best = endpoint;
+            }
+        }
+        if (best == null) {
+            for (Endpoint<C> endpoint : endpoints) {
+                if (endpoint != excluded
+                    && (best == null || endpoint.skippedUntilNanos - best.skippedUntilNanos < 0)) {
+                    best = endpoint;
+                }
+            }
+        }
+        return best;
+    }
+
+    List<Endpoint<C>> getEndpoints() {
+        return endpoints;
+    }
+
+    void forEachClient(Consumer<C> consumer) {
+        for (Endpoint<C> endpoint : endpoints) {
+            consumer.accept(endpoint.client);
+        }
+    }
+
+    /**
+     * Returns true if a request failed because the endpoint could not be reached or could not serve it,
+     * rather than because of the request itself
+     */
+    static boolean isEndpointFailure(RuntimeException e) {
+        return e instanceof ClientException
+            || (e instanceof OSSException && "InternalError".equals(((OSSException)e).getErrorCode()));
+    }
+
+    @Override
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    /**
+     * State of an endpoint, updated by every request without locking: the moving averages are doubles held
+     * in atomics and updated with compare-and-set, and the success of a request on a healthy endpoint only
+     * reads them, so that concurrent requests do not contend on the endpoint.
+     */
+    static final class Endpoint<C> {
+        /**
+         * Error rate below which an endpoint is taken as healthy and successful requests stop decaying it
+         */
+        static final double MIN_ERROR_RATE = 0.001;
+
+        final String name;
+        final C client;
+        /**
+         * Bits of the moving average of the probe latency, 0 until the first probe answers
+         */
+        private final AtomicLong latencyNanos = new AtomicLong(Double.doubleToLongBits(0));
+        /**
+         * Bits of the moving average of the share of failed requests and probes
+         */
+        private final AtomicLong errorRate = new AtomicLong(Double.doubleToLongBits(0));
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long skippedUntilNanos;
+        private volatile boolean skipped;
+
+        Endpoint(String name, C client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        void onProbe(long tookNanos) {
+            update(latencyNanos, latency -> latency == 0 ? tookNanos : latency + EWMA_WEIGHT * (tookNanos - latency));
+            onSuccess();
+        }
+
+        void onSuccess() {
+            if (Double.longBitsToDouble(errorRate.get()) != 0) {
+                update(errorRate, rate -> {
+                    double decayed = rate - EWMA_WEIGHT * rate;
+                    return decayed < MIN_ERROR_RATE ? 0 : decayed;
+                });
+            }
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+            if (skipped) {
+                skipped = false;
+            }
+        }
+
+        void onFailure(long cooldownNanos) {
+            update(errorRate, rate -> rate + EWMA_WEIGHT * (1 - rate));
+            final int failures = consecutiveFailures.incrementAndGet();
+            if (failures >= MAX_CONSECUTIVE_FAILURES) {
+                if (skipped == false) {
+                    logger.warn("skipping oss endpoint [{}] after [{}] consecutive failures", name, failures);
+                }
+                skippedUntilNanos = System.nanoTime() + cooldownNanos;
+                skipped = true;
+            }
+        }
+
+        private static void update(AtomicLong average, DoubleUnaryOperator function) {
+            while (true) {
+                final long bits = average.get();
+                final long updated = Double.doubleToLongBits(function.applyAsDouble(Double.longBitsToDouble(bits)));
+                if (bits == updated || average.compareAndSet(bits, updated)) {
+                    return;
+                }
+            }
+        }
+
+        boolean isAvailable(long nowNanos) {
+            return skipped == false || nowNanos - skippedUntilNanos >= 0;
+        }
+
+        /**
+         * Lower is better: the probe latency in milliseconds, at least 1, grown tenfold by a full error rate
+         */
+        double score() {
+            return Math.max(1, getLatencyMillis()) * (1 + 10 * getErrorRate());
+        }
+
+        double getLatencyMillis() {
+            return Double.longBitsToDouble(latencyNanos.get()) / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        double getErrorRate() {
+            return Double.longBitsToDouble(errorRate.get());
+        }
+
+        boolean isSkipped() {
+            return skipped && System.nanoTime() - skippedUntilNanos < 0;
+        }
+    }
+}
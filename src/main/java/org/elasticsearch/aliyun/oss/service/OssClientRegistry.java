@@ -0,0 +1,167 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.AbstractRefCounted;
+
+/**
+ * Node level registry of OSS clients. Repositories with the same endpoints, credentials and client
+ * settings share one {@link OssStorageClient} and so its connection pool. A client is shut down when
+ * the last repository using it releases it.
+ */
+public class OssClientRegistry implements Closeable {
+    private static final Logger logger = LogManager.getLogger(OssClientRegistry.class);
+
+    private final Map<ClientKey, SharedClient> clients = new HashMap<>();
+
+    /**
+     * Returns a service like {@link #acquire(RepositoryMetaData, OssExecutors)} with executors of its own
+     */
+    public OssService acquire(RepositoryMetaData metadata) throws CreateStsOssClientException {
+        return acquire(metadata, OssExecutors.newPrivate());
+    }
+
+    /**
+     * Returns a service on top of the shared client matching the repository settings, creating the client
+     * if no repository uses it yet. The client is released by {@link OssService#shutdown()}.
+     *
+     * @param metadata  metadata of the repository
+     * @param executors executors the asynchronous requests of the service are sent on
+     * @return an {@link OssService} holding a reference to the shared client
+     */
+    public synchronized OssService acquire(RepositoryMetaData metadata, OssExecutors executors)
+        throws CreateStsOssClientException {
+        ClientKey key = ClientKey.of(metadata);
+        SharedClient client = clients.get(key);
+        if (client == null || !client.tryIncRef()) {
+            client = new SharedClient(key, new OssStorageClient(metadata));
+            clients.put(key, client);
+            logger.debug("created oss client [{}] for repository [{}]", key, metadata.name());
+        } else {
+            logger.debug("reusing oss client [{}] for repository [{}]", key, metadata.name());
+        }
+        return new OssServiceImpl(client.storageClient, client::decRef, executors,
+            OssClientSettings.MAX_IN_FLIGHT_REQUESTS.get(metadata.settings()));
+    }
+
+    /**
+     * @return number of clients currently shared by repositories
+     */
+    public synchronized int size() {
+        return clients.size();
+    }
+
+    private synchronized void remove(SharedClient client) {
+        clients.remove(client.key, client);
+    }
+
+    /**
+     * Shuts down all the clients, whether or not repositories still use them.
+     */
+    @Override
+    public void close() {
+        List<SharedClient> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(clients.values());
+            clients.clear();
+        }
+        for (SharedClient client : toClose) {
+            client.storageClient.shutdown();
+        }
+    }
+
+    private class SharedClient extends AbstractRefCounted {
+        private final ClientKey key;
+        private final OssStorageClient storageClient;
+
+        private SharedClient(ClientKey key, OssStorageClient storageClient) {
+            super("oss-client");
+            this.key = key;
+            this.storageClient = storageClient;
+        }
+
+        @Override
+        protected void closeInternal() {
+            remove(this);
+            storageClient.shutdown();
+            logger.debug("closed oss client [{}]", key);
+        }
+    }
+
+    /**
+     * Settings that identify a client. Credentials are part of the key but never printed.
+     */
+    static final class ClientKey {
+        private final String endpoint;
+        private final List<String> endpoints;
+        private final TimeValue endpointProbeInterval;
+        private final String accessKeyId;
+        private final String secretAccessKey;
+        private final String securityToken;
+        private final String ecsRamRole;
+        private final boolean supportCname;
+
+        private ClientKey(String endpoint, List<String> endpoints, TimeValue endpointProbeInterval,
+            String accessKeyId, String secretAccessKey, String securityToken, String ecsRamRole,
+            boolean supportCname) {
+            this.endpoint = endpoint;
+            this.endpoints = endpoints;
+            this.endpointProbeInterval = endpointProbeInterval;
+            this.accessKeyId = accessKeyId;
+            this.secretAccessKey = secretAccessKey;
+            this.securityToken = securityToken;
+            this.ecsRamRole = ecsRamRole;
+            this.supportCname = supportCname;
+        }
+
+        static ClientKey of(RepositoryMetaData metadata) {
+            return new ClientKey(OssClientSettings.ENDPOINT.get(metadata.settings()),
+                OssClientSettings.ENDPOINTS.get(metadata.settings()),
+                OssClientSettings.ENDPOINT_PROBE_INTERVAL.get(metadata.settings()),
+                OssClientSettings.ACCESS_KEY_ID.get(metadata.settings()).toString(),
+                OssClientSettings.SECRET_ACCESS_KEY.get(metadata.settings()).toString(),
+                OssClientSettings.SECURITY_TOKEN.get(metadata.settings()).toString(),
+                OssClientSettings.ECS_RAM_ROLE.get(metadata.settings()).toString(),
+                OssClientSettings.SUPPORT_CNAME.get(metadata.settings()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ClientKey that = (ClientKey)o;
+            return supportCname == that.supportCname && Objects.equals(endpoint, that.endpoint)
+                && Objects.equals(endpoints, that.endpoints)
+                && Objects.equals(endpointProbeInterval, that.endpointProbeInterval)
+                && Objects.equals(accessKeyId, that.accessKeyId)
+                && Objects.equals(secretAccessKey, that.secretAccessKey)
+                && Objects.equals(securityToken, that.securityToken) && Objects.equals(ecsRamRole, that.ecsRamRole);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, endpoints, endpointProbeInterval, accessKeyId, secretAccessKey,
+                securityToken, ecsRamRole, supportCname);
+        }
+
+        @Override
+        public String toString() {
+            return "endpoint=" + endpoint + ", endpoints=" + endpoints + ", ecs_ram_role=" + ecsRamRole
+                + ", support_cname=" + supportCname;
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package org.elasticsearch.aliyun.oss.service;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
 import org.apache.commons.lang.StringUtils;
 import org.elasticsearch.common.settings.SecureString;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 
 import static org.elasticsearch.common.settings.Setting.Property;
 import static org.elasticsearch.common.settings.Setting.boolSetting;
 import static org.elasticsearch.common.settings.Setting.byteSizeSetting;
+import static org.elasticsearch.common.settings.Setting.doubleSetting;
+import static org.elasticsearch.common.settings.Setting.intSetting;
+import static org.elasticsearch.common.settings.Setting.listSetting;
 import static org.elasticsearch.common.settings.Setting.simpleString;
+import static org.elasticsearch.common.settings.Setting.timeSetting;
 
 /**
  * OSS client configuration
@@ -18,6 +27,8 @@ import static org.elasticsearch.common.settings.Setting.simpleString;
 public class OssClientSettings {
     private static final ByteSizeValue MIN_CHUNK_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB);
     private static final ByteSizeValue MAX_CHUNK_SIZE = new ByteSizeValue(1, ByteSizeUnit.GB);
+    /** OSS rejects multipart parts (except the last one) smaller than 100KB. */
+    private static final ByteSizeValue MIN_PART_SIZE = new ByteSizeValue(100, ByteSizeUnit.KB);
 
     public static final Setting<SecureString> ACCESS_KEY_ID =
         new Setting<>("access_key_id", StringUtils.EMPTY, SecureString::new, Property.Filtered,
@@ -27,6 +38,9 @@ public class OssClientSettings {
             Property.Dynamic, Property.NodeScope);
     public static final Setting<String> ENDPOINT =
         Setting.simpleString("endpoint", Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<List<String>> ENDPOINTS =
+        listSetting("endpoints", Collections.emptyList(), Function.identity(), Setting.Property.NodeScope,
+            Setting.Property.Dynamic);
     public static final Setting<SecureString> SECURITY_TOKEN =
         new Setting<>("security_token", StringUtils.EMPTY, SecureString::new, Property.Filtered,
             Property.Dynamic, Property.NodeScope);
@@ -47,4 +61,70 @@ public class OssClientSettings {
             Property.Dynamic, Property.NodeScope);
     public static final Setting<Boolean> SUPPORT_CNAME =
         boolSetting("support_cname", true, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> MULTIPART_UPLOAD_THRESHOLD =
+        byteSizeSetting("multipart_upload_threshold", new ByteSizeValue(128, ByteSizeUnit.MB), MIN_PART_SIZE,
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> MULTIPART_PART_SIZE =
+        byteSizeSetting("multipart_part_size", new ByteSizeValue(8, ByteSizeUnit.MB), MIN_PART_SIZE,
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> MULTIPART_UPLOAD_CONCURRENCY =
+        intSetting("multipart_upload_concurrency", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> DOWNLOAD_RANGE_SIZE =
+        byteSizeSetting("download_range_size", new ByteSizeValue(8, ByteSizeUnit.MB), MIN_PART_SIZE,
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> DOWNLOAD_CONCURRENCY =
+        intSetting("download_concurrency", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> DOWNLOAD_MAX_RETRIES =
+        intSetting("download_max_retries", 3, 0, 10, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> READ_AHEAD_SIZE =
+        byteSizeSetting("read_ahead_size", new ByteSizeValue(4, ByteSizeUnit.MB), new ByteSizeValue(0),
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> MULTIPART_COPY_THRESHOLD =
+        byteSizeSetting("multipart_copy_threshold", new ByteSizeValue(128, ByteSizeUnit.MB), MIN_PART_SIZE,
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> MULTIPART_COPY_PART_SIZE =
+        byteSizeSetting("multipart_copy_part_size", new ByteSizeValue(64, ByteSizeUnit.MB), MIN_PART_SIZE,
+            MAX_CHUNK_SIZE, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> DELETE_CONCURRENCY =
+        intSetting("delete_concurrency", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> BLOB_LOOKUP_CONCURRENCY =
+        intSetting("blob_lookup_concurrency", 16, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> MAX_REQUEST_RATE =
+        intSetting("max_request_rate", 1000, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> THROTTLE_MAX_RETRIES =
+        intSetting("throttle_max_retries", 6, 0, 20, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> MULTIPART_PART_MAX_RETRIES =
+        intSetting("multipart_part_max_retries", 3, 0, 10, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<TimeValue> STALE_UPLOAD_MAX_AGE =
+        timeSetting("stale_upload_max_age", TimeValue.timeValueHours(24), TimeValue.ZERO,
+            Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> METADATA_CACHE_SIZE =
+        byteSizeSetting("metadata_cache_size", new ByteSizeValue(128, ByteSizeUnit.MB), new ByteSizeValue(0),
+            new ByteSizeValue(Long.MAX_VALUE), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<TimeValue> CONTAINER_CACHE_TTL =
+        timeSetting("container_cache_ttl", TimeValue.ZERO, TimeValue.ZERO,
+            Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> CONTAINER_CACHE_MAX_BLOBS =
+        intSetting("container_cache_max_blobs", 100000, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Boolean> COMPRESS_DATA =
+        boolSetting("compress_data", false, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> COMPRESSION_CONCURRENCY =
+        intSetting("compression_concurrency", 4, 1, 64, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<ByteSizeValue> UPLOAD_BUFFER_POOL_SIZE =
+        byteSizeSetting("upload_buffer_pool_size", new ByteSizeValue(64, ByteSizeUnit.MB), new ByteSizeValue(0),
+            new ByteSizeValue(Long.MAX_VALUE), Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> MAX_IN_FLIGHT_REQUESTS =
+        intSetting("max_in_flight_requests", 64, 1, 1024, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<TimeValue> ENDPOINT_PROBE_INTERVAL =
+        timeSetting("endpoint_probe_interval", TimeValue.timeValueSeconds(30), TimeValue.ZERO,
+            Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Boolean> HEDGED_READS =
+        boolSetting("hedged_reads", false, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Integer> HEDGED_READ_PERCENTILE =
+        intSetting("hedged_read_percentile", 95, 50, 99, Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<TimeValue> HEDGED_READ_MIN_DELAY =
+        timeSetting("hedged_read_min_delay", TimeValue.timeValueMillis(20), TimeValue.ZERO,
+            Setting.Property.NodeScope, Setting.Property.Dynamic);
+    public static final Setting<Double> HEDGED_READ_MAX_FRACTION =
+        doubleSetting("hedged_read_max_fraction", 0.05, 0, 1, Setting.Property.NodeScope, Setting.Property.Dynamic);
 }
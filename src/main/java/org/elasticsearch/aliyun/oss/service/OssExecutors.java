@@ -0,0 +1,88 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Executors the OSS requests of the plugin run on: the transfer executor for parts, ranges, compression and
+ * uploads or downloads of whole objects, and the metadata executor for listings, existence checks and
+ * deletes, so that slow transfers do not hold up metadata requests. On a node they are the {@code oss_transfer}
+ * and {@code oss_metadata} thread pools, whose size and queue are set with {@code thread_pool.oss_transfer.size},
+ * {@code thread_pool.oss_transfer.queue_size} and the same settings of {@code oss_metadata}, and which are
+ * reported in {@code _nodes/stats/thread_pool}.
+ */
+public final class OssExecutors {
+
+    public static final String TRANSFER_THREAD_POOL_NAME = "oss_transfer";
+    public static final String METADATA_THREAD_POOL_NAME = "oss_metadata";
+
+    private final ExecutorService transfer;
+    private final ExecutorService metadata;
+    /**
+     * Whether the executors were created for a single blob store or service, which then shuts them down
+     */
+    private final boolean owned;
+
+    private OssExecutors(ExecutorService transfer, ExecutorService metadata, boolean owned) {
+        this.transfer = transfer;
+        this.metadata = metadata;
+        this.owned = owned;
+    }
+
+    /**
+     * Returns the thread pools registered by {@link #getExecutorBuilders(Settings)} on a node
+     */
+    public static OssExecutors of(ThreadPool threadPool) {
+        return new OssExecutors(threadPool.executor(TRANSFER_THREAD_POOL_NAME),
+            threadPool.executor(METADATA_THREAD_POOL_NAME), false);
+    }
+
+    /**
+     * Returns unbounded executors owned by the caller, for blob stores and services created outside of a node
+     */
+    public static OssExecutors newPrivate() {
+        return new OssExecutors(
+            Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(TRANSFER_THREAD_POOL_NAME)),
+            Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(METADATA_THREAD_POOL_NAME)), true);
+    }
+
+    /**
+     * Returns the builders of the thread pools of the plugin. Both have a fixed number of threads sized by the
+     * allocated processors, since their requests spend most of their time waiting for OSS, and an unbounded
+     * queue, since the plugin already bounds the requests each transfer keeps in flight.
+     */
+    public static List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        final int processors = EsExecutors.numberOfProcessors(settings);
+        return Arrays.asList(
+            new FixedExecutorBuilder(settings, TRANSFER_THREAD_POOL_NAME, Math.max(8, Math.min(4 * processors, 64)),
+                -1, "thread_pool." + TRANSFER_THREAD_POOL_NAME),
+            new FixedExecutorBuilder(settings, METADATA_THREAD_POOL_NAME, Math.max(4, Math.min(2 * processors, 16)),
+                -1, "thread_pool." + METADATA_THREAD_POOL_NAME));
+    }
+
+    public ExecutorService transfer() {
+        return transfer;
+    }
+
+    public ExecutorService metadata() {
+        return metadata;
+    }
+
+    /**
+     * Shuts down the executors if they are owned, the thread pools of a node are left to the node
+     */
+    public void close() {
+        if (owned) {
+            transfer.shutdownNow();
+            metadata.shutdownNow();
+        }
+    }
+}
@@ -5,16 +5,29 @@ import java.io.InputStream;
 
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
 import com.aliyun.oss.model.Bucket;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadResult;
 import com.aliyun.oss.model.CopyObjectResult;
 import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListMultipartUploadsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ListPartsRequest;
+import com.aliyun.oss.model.MultipartUploadListing;
 import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartListing;
 import com.aliyun.oss.model.PutObjectResult;
-import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartCopyResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
 
 /**
  * OSS Service interface for creating oss client.
@@ -69,6 +82,17 @@ public interface OssService {
     OSSObject getObject(String bucketName, String key)
         throws OSSException, ClientException, IOException;
 
+    /**
+     * Export {@link OSSObject} from the OSS specified {@link Bucket}, with the range and
+     * constraints of the request.
+     *
+     * @param getObjectRequest request parameters {@link GetObjectRequest}
+     * @return Request result {@link OSSObject} instance. After use, you need to manually
+     * close the ObjectContent release request connection.
+     */
+    OSSObject getObject(GetObjectRequest getObjectRequest)
+        throws OSSException, ClientException, IOException;
+
     /**
      * Upload the specified {@link OSSObject} to the {@link Bucket} specified in OSS.
      *
@@ -106,17 +130,102 @@ public interface OssService {
     CopyObjectResult copyObject(String sourceBucketName, String sourceKey,
         String destinationBucketName, String destinationKey) throws OSSException, ClientException;
 
+    /**
+     * Initiate a multipart upload, the returned upload id identifies the upload in the following requests.
+     *
+     * @param request request parameters {@link InitiateMultipartUploadRequest}
+     * @return result {@link InitiateMultipartUploadResult} containing the upload id.
+     * @throws OSSException
+     * @throws ClientException
+     */
+    InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+        throws OSSException, ClientException;
+
+    /**
+     * Upload one part of a multipart upload.
+     *
+     * @param request request parameters {@link UploadPartRequest}
+     * @return result {@link UploadPartResult} containing the part ETag.
+     * @throws OSSException
+     * @throws ClientException
+     */
+    UploadPartResult uploadPart(UploadPartRequest request) throws OSSException, ClientException;
+
+    /**
+     * Upload one part of a multipart upload by copying a byte range of an existing object on the server side.
+     *
+     * @param request request parameters {@link UploadPartCopyRequest}
+     * @return result {@link UploadPartCopyResult} containing the part ETag.
+     * @throws OSSException
+     * @throws ClientException
+     */
+    UploadPartCopyResult uploadPartCopy(UploadPartCopyRequest request) throws OSSException, ClientException;
+
+    /**
+     * Complete a multipart upload, assembling the uploaded parts into the target {@link OSSObject}.
+     *
+     * @param request request parameters {@link CompleteMultipartUploadRequest}
+     * @return result {@link CompleteMultipartUploadResult}
+     * @throws OSSException
+     * @throws ClientException
+     */
+    CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+        throws OSSException, ClientException;
+
+    /**
+     * Get the metadata of an object without its content.
+     *
+     * @param bucketName bucket name
+     * @param key        object key
+     * @return the object metadata, including its length and ETag
+     * @throws OSSException
+     * @throws ClientException
+     */
+    ObjectMetadata getObjectMetadata(String bucketName, String key) throws OSSException, ClientException;
+
+    /**
+     * Abort a multipart upload and release the parts already uploaded.
+     *
+     * @param request request parameters {@link AbortMultipartUploadRequest}
+     * @throws OSSException
+     * @throws ClientException
+     */
+    void abortMultipartUpload(AbortMultipartUploadRequest request) throws OSSException, ClientException;
+
+    /**
+     * List the parts already uploaded in a multipart upload.
+     *
+     * @param request request parameters {@link ListPartsRequest}
+     * @return a page of {@link PartListing} with the number, size and ETag of each part
+     * @throws OSSException
+     * @throws ClientException
+     */
+    PartListing listParts(ListPartsRequest request) throws OSSException, ClientException;
+
+    /**
+     * List the multipart uploads of a bucket which were initiated but neither completed nor aborted.
+     *
+     * @param request request parameters {@link ListMultipartUploadsRequest}
+     * @return a page of {@link MultipartUploadListing}
+     * @throws OSSException
+     * @throws ClientException
+     */
+    MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+        throws OSSException, ClientException;
+
     /**
      * Closes the Client instance and frees all the resources that are in use.
-     * Once closed, no requests to the OSS will be processed anymore.
+     * Once closed, no requests to the OSS will be processed anymore. A client shared with
+     * other repositories is only closed once all of them are shut down. Calling it again has no effect.
      */
     void shutdown();
 
     /**
-     * refresh StsOssClient instance which construct via sts-accessKeyId, sts-accessKeySecret, sts-securityToken
-     * Once refreshed, sts-securityToken is valid.
+     * Returns the background refresher of the STS credentials, which renews them before they expire.
+     *
+     * @return the refresher, or null if the client does not use STS credentials from an ECS RAM role
      */
-    void refreshStsOssClient() throws CreateStsOssClientException;
+    StsCredentialsRefresher getStsCredentialsRefresher();
 
     /**
      * judge if use Sts OssClient
@@ -1,30 +1,72 @@
 package org.elasticsearch.aliyun.oss.service;
 
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadResult;
 import com.aliyun.oss.model.CopyObjectResult;
 import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListMultipartUploadsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ListPartsRequest;
+import com.aliyun.oss.model.MultipartUploadListing;
 import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartListing;
 import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartCopyResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
 import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.lease.Releasable;
 
 /**
- * OSS Service implementation for creating oss client
+ * OSS Service implementation for creating oss client. Asynchronous requests are sent on the
+ * {@link OssExecutors} of the service, at most {@code max_in_flight_requests} of them submitted at a time.
  * Created by yangkongshi on 2017/11/24.
  */
-public class OssServiceImpl implements OssService {
-
-    private OssStorageClient ossStorageClient;
-
+public class OssServiceImpl implements OssService, AsyncOssService {
+
+    private final OssStorageClient ossStorageClient;
+    /**
+     * Releases the client on shutdown, the client may be shared with other services
+     */
+    private final Releasable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final OssExecutors executors;
+    private final BoundedAsyncOssService asyncService;
+
+    /**
+     * Creates a service with its own client and executors
+     */
     public OssServiceImpl(RepositoryMetaData metadata) throws CreateStsOssClientException {
-        this.ossStorageClient = new OssStorageClient(metadata);
+        this(new OssStorageClient(metadata), null, OssExecutors.newPrivate(),
+            OssClientSettings.MAX_IN_FLIGHT_REQUESTS.get(metadata.settings()));
+    }
+
+    /**
+     * @param release   releases the client on shutdown, null to shut the client down
+     * @param executors executors of the asynchronous requests, shut down with the service if they are private
+     */
+    OssServiceImpl(OssStorageClient ossStorageClient, Releasable release, OssExecutors executors,
+        int maxInFlightRequests) {
+        this.ossStorageClient = ossStorageClient;
+        this.release = release == null ? ossStorageClient::shutdown : release;
+        this.executors = executors;
+        this.asyncService = new BoundedAsyncOssService(this, executors.transfer(), executors.metadata(),
+            maxInFlightRequests);
     }
 
     @Override
@@ -57,6 +99,12 @@ public class OssServiceImpl implements OssService {
         return this.ossStorageClient.getObject(bucketName, key);
     }
 
+    @Override
+    public OSSObject getObject(GetObjectRequest getObjectRequest)
+        throws OSSException, ClientException {
+        return this.ossStorageClient.getObject(getObjectRequest);
+    }
+
     @Override
     public PutObjectResult putObject(String bucketName, String key, InputStream input,
         ObjectMetadata metadata) throws OSSException, ClientException {
@@ -76,14 +124,117 @@ public class OssServiceImpl implements OssService {
             .copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
     }
 
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        return this.ossStorageClient.initiateMultipartUpload(request);
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) throws OSSException, ClientException {
+        return this.ossStorageClient.uploadPart(request);
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        return this.ossStorageClient.completeMultipartUpload(request);
+    }
+
+    @Override
+    public UploadPartCopyResult uploadPartCopy(UploadPartCopyRequest request) throws OSSException, ClientException {
+        return this.ossStorageClient.uploadPartCopy(request);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) throws OSSException, ClientException {
+        return this.ossStorageClient.getObjectMetadata(bucketName, key);
+    }
+
+    @Override
+    public PartListing listParts(ListPartsRequest request) throws OSSException, ClientException {
+        return this.ossStorageClient.listParts(request);
+    }
+
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+        throws OSSException, ClientException {
+        return this.ossStorageClient.listMultipartUploads(request);
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) throws OSSException, ClientException {
+        this.ossStorageClient.abortMultipartUpload(request);
+    }
+
+    @Override
+    public CompletableFuture<OSSObject> getObjectAsync(GetObjectRequest getObjectRequest) {
+        return asyncService.getObjectAsync(getObjectRequest);
+    }
+
+    @Override
+    public CompletableFuture<ObjectMetadata> getObjectMetadataAsync(String bucketName, String key) {
+        return asyncService.getObjectMetadataAsync(bucketName, key);
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResult> putObjectAsync(String bucketName, String key, InputStream input,
+        ObjectMetadata metadata) {
+        return asyncService.putObjectAsync(bucketName, key, input, metadata);
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResult> uploadPartAsync(UploadPartRequest request) {
+        return asyncService.uploadPartAsync(request);
+    }
+
+    @Override
+    public CompletableFuture<ObjectListing> listObjectsAsync(ListObjectsRequest listObjectsRequest) {
+        return asyncService.listObjectsAsync(listObjectsRequest);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteObjectAsync(String bucketName, String key) {
+        return asyncService.deleteObjectAsync(bucketName, key);
+    }
+
+    @Override
+    public CompletableFuture<DeleteObjectsResult> deleteObjectsAsync(DeleteObjectsRequest deleteObjectsRequest) {
+        return asyncService.deleteObjectsAsync(deleteObjectsRequest);
+    }
+
+    @Override
+    public CompletableFuture<CopyObjectResult> copyObjectAsync(String sourceBucketName, String sourceKey,
+        String destinationBucketName, String destinationKey) {
+        return asyncService.copyObjectAsync(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
+    }
+
+    @Override
+    public int getMaxInFlightRequests() {
+        return asyncService.getMaxInFlightRequests();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return asyncService.getInFlightRequests();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return asyncService.getQueuedRequests();
+    }
+
     @Override
     public void shutdown() {
-        ossStorageClient.shutdown();
+        if (closed.compareAndSet(false, true)) {
+            executors.close();
+            release.close();
+        }
     }
 
     @Override
-    public void refreshStsOssClient() throws CreateStsOssClientException {
-        ossStorageClient.refreshStsOssClient();
+    public StsCredentialsRefresher getStsCredentialsRefresher() {
+        return ossStorageClient.getStsCredentialsRefresher();
     }
 
     @Override
@@ -2,9 +2,11 @@ package org.elasticsearch.aliyun.oss.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.List;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
@@ -13,14 +15,32 @@ import com.aliyun.oss.ClientConfiguration;
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.common.auth.Credentials;
+import com.aliyun.oss.common.auth.CredentialsProvider;
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import com.aliyun.oss.common.auth.DefaultCredentials;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadResult;
 import com.aliyun.oss.model.CopyObjectResult;
 import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListMultipartUploadsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ListPartsRequest;
+import com.aliyun.oss.model.MultipartUploadListing;
 import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartListing;
 import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartCopyResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
 import okhttp3.Response;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -28,13 +48,13 @@ import org.apache.logging.log4j.Logger;
 import org.elasticsearch.aliyun.oss.blobstore.OssBlobContainer;
 import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.settings.SecureString;
+import org.elasticsearch.repositories.RepositoryException;
 import org.elasticsearch.repository.oss.OssRepository;
 import org.elasticsearch.utils.DateHelper;
 import org.elasticsearch.utils.HttpClientHelper;
 
-import static java.lang.Thread.sleep;
-
 /**
  * @author hanqing.zhq@alibaba-inc.com
  * @date 2018/6/26
@@ -42,17 +62,17 @@ import static java.lang.Thread.sleep;
 public class OssStorageClient {
     private static final Logger logger = LogManager.getLogger(OssBlobContainer.class);
 
-    private RepositoryMetaData metadata;
-    private OSSClient client;
-    private Date stsTokenExpiration;
+    private final RepositoryMetaData metadata;
+    private final EndpointRouter<OSSClient> router;
+    /**
+     * Swaps renewed STS credentials into the client in the background, null unless an ECS RAM role is used
+     */
+    private StsCredentialsRefresher stsCredentialsRefresher;
     private String ECS_METADATA_SERVICE = "http://100.100.100.200/latest/meta-data/ram/security-credentials/";
-    private final int IN_TOKEN_EXPIRED_MS = 5000;
     private final String ACCESS_KEY_ID = "AccessKeyId";
     private final String ACCESS_KEY_SECRET = "AccessKeySecret";
     private final String SECURITY_TOKEN = "SecurityToken";
-    private final int REFRESH_RETRY_COUNT = 3;
-    private boolean isStsOssClient;
-    private ReadWriteLock readWriteLock;
+    private final boolean isStsOssClient;
 
     private final String EXPIRATION = "Expiration";
 
@@ -63,193 +83,150 @@ public class OssStorageClient {
         } else {
             isStsOssClient = false;
         }
-        readWriteLock = new ReentrantReadWriteLock();
-        client = createClient(metadata);
+        CredentialsProvider credentialsProvider = createCredentialsProvider(metadata);
+        String bucket = OssClientSettings.BUCKET.get(metadata.settings());
+        if (isStsOssClient) {
+            bucket = OssClientSettings.AUTO_SNAPSHOT_BUCKET.get(metadata.settings()).toString();
+        }
+        final String probedBucket = bucket;
+        router = new EndpointRouter<>(endpoints(metadata),
+            endpoint -> new OSSClient(endpoint, credentialsProvider, extractClientConfiguration(metadata)),
+            client -> AccessController.doPrivileged(
+                (PrivilegedAction<Boolean>)() -> client.doesBucketExist(probedBucket)),
+            OssClientSettings.ENDPOINT_PROBE_INTERVAL.get(metadata.settings()));
+    }
 
+    /**
+     * Returns the endpoints of the repository: {@code endpoint} first if it is set, then those of
+     * {@code endpoints} in their order
+     */
+    static List<String> endpoints(RepositoryMetaData metadata) {
+        List<String> endpoints = new ArrayList<>();
+        String endpoint = OssClientSettings.ENDPOINT.get(metadata.settings());
+        if (Strings.hasText(endpoint)) {
+            endpoints.add(endpoint);
+        }
+        for (String other : OssClientSettings.ENDPOINTS.get(metadata.settings())) {
+            if (Strings.hasText(other) && endpoints.contains(other) == false) {
+                endpoints.add(other);
+            }
+        }
+        if (endpoints.isEmpty()) {
+            throw new RepositoryException(metadata.name(), "Setting [" + OssClientSettings.ENDPOINT.getKey()
+                + "] or [" + OssClientSettings.ENDPOINTS.getKey() + "] is not defined for repository");
+        }
+        return endpoints;
     }
 
     public boolean isStsOssClient() {
         return isStsOssClient;
     }
 
+    public StsCredentialsRefresher getStsCredentialsRefresher() {
+        return stsCredentialsRefresher;
+    }
+
     public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.deleteObjects(deleteObjectsRequest);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.deleteObjects(deleteObjectsRequest);
-        }
+        return router.execute(client -> client.deleteObjects(deleteObjectsRequest), true);
     }
 
     public boolean doesObjectExist(String bucketName, String key)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.doesObjectExist(bucketName, key);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.doesObjectExist(bucketName, key);
-        }
+        return router.execute(client -> client.doesObjectExist(bucketName, key), true);
     }
 
     public boolean doesBucketExist(String bucketName)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.doesBucketExist(bucketName);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.doesBucketExist(bucketName);
-        }
+        return router.execute(client -> client.doesBucketExist(bucketName), true);
     }
 
     public ObjectListing listObjects(ListObjectsRequest listObjectsRequest)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.listObjects(listObjectsRequest);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.listObjects(listObjectsRequest);
-        }
+        return router.execute(client -> client.listObjects(listObjectsRequest), true);
     }
 
     public OSSObject getObject(String bucketName, String key)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.getObject(bucketName, key);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.getObject(bucketName, key);
-        }
+        return router.execute(client -> client.getObject(bucketName, key), true);
+    }
+
+    public OSSObject getObject(GetObjectRequest getObjectRequest)
+        throws OSSException, ClientException {
+        return router.execute(client -> client.getObject(getObjectRequest), true);
     }
 
     public PutObjectResult putObject(String bucketName, String key, InputStream input,
         ObjectMetadata metadata) throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client.putObject(bucketName, key, input, metadata);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client.putObject(bucketName, key, input, metadata);
-        }
+        return router.execute(client -> client.putObject(bucketName, key, input, metadata), false);
     }
 
     public void deleteObject(String bucketName, String key)
         throws OSSException, ClientException {
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                this.client.deleteObject(bucketName, key);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            this.client.deleteObject(bucketName, key);
-        }
-
+        router.execute(client -> {
+            client.deleteObject(bucketName, key);
+            return null;
+        }, true);
     }
 
     public CopyObjectResult copyObject(String sourceBucketName, String sourceKey,
         String destinationBucketName, String destinationKey) throws OSSException, ClientException {
+        return router.execute(
+            client -> client.copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey), true);
+    }
 
-        if (isStsOssClient) {
-            readWriteLock.readLock().lock();
-            try {
-                return this.client
-                    .copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
-            } finally {
-                readWriteLock.readLock().unlock();
-            }
-        } else {
-            return this.client
-                .copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
-        }
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        return router.execute(client -> client.initiateMultipartUpload(request), false);
     }
 
-    public void refreshStsOssClient() throws CreateStsOssClientException {
-        int retryCount = 0;
-        while (isStsTokenExpired() || isTokenWillExpired()) {
-            retryCount++;
-            if (retryCount > REFRESH_RETRY_COUNT) {
-                logger.error("Can't get valid token after retry {} times", REFRESH_RETRY_COUNT);
-                throw new CreateStsOssClientException(
-                    "Can't get valid token after retry " + REFRESH_RETRY_COUNT + " times");
-            }
-            this.client = createStsOssClient(this.metadata);
-            try {
-                if (isStsTokenExpired() || isTokenWillExpired()) {
-                    sleep(IN_TOKEN_EXPIRED_MS * 2);
-                }
-            } catch (InterruptedException e) {
-                logger.error("refresh sleep exception", e);
-                throw new CreateStsOssClientException(e);
-            }
-        }
+    public UploadPartResult uploadPart(UploadPartRequest request) throws OSSException, ClientException {
+        return router.execute(client -> client.uploadPart(request), false);
     }
 
-    public void shutdown() {
-        if (isStsOssClient) {
-            readWriteLock.writeLock().lock();
-            try {
-                if (null != this.client) {
-                    this.client.shutdown();
-                }
-            } finally {
-                readWriteLock.writeLock().unlock();
-            }
-        } else {
-            if (null != this.client) {
-                this.client.shutdown();
-            }
-        }
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        return router.execute(client -> client.completeMultipartUpload(request), false);
     }
 
-    private boolean isStsTokenExpired() {
-        boolean expired = true;
-        Date now = new Date();
-        if (null != stsTokenExpiration) {
-            if (stsTokenExpiration.after(now)) {
-                expired = false;
-            }
-        }
-        return expired;
+    public UploadPartCopyResult uploadPartCopy(UploadPartCopyRequest request) throws OSSException, ClientException {
+        return router.execute(client -> client.uploadPartCopy(request), true);
     }
 
-    private boolean isTokenWillExpired() {
-        boolean in = true;
-        Date now = new Date();
-        long millisecond = stsTokenExpiration.getTime() - now.getTime();
-        if (millisecond >= IN_TOKEN_EXPIRED_MS) {
-            in = false;
-        }
-        return in;
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) throws OSSException, ClientException {
+        return router.execute(client -> client.getObjectMetadata(bucketName, key), true);
     }
 
-    private OSSClient createClient(RepositoryMetaData repositoryMetaData) throws CreateStsOssClientException {
-        OSSClient client;
+    public PartListing listParts(ListPartsRequest request) throws OSSException, ClientException {
+        return router.execute(client -> client.listParts(request), true);
+    }
+
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+        throws OSSException, ClientException {
+        return router.execute(client -> client.listMultipartUploads(request), true);
+    }
+
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) throws OSSException, ClientException {
+        router.execute(client -> {
+            client.abortMultipartUpload(request);
+            return null;
+        }, true);
+    }
+
+    public void shutdown() {
+        if (null != stsCredentialsRefresher) {
+            stsCredentialsRefresher.close();
+        }
+        router.close();
+        router.forEachClient(OSSClient::shutdown);
+    }
 
+    /**
+     * Creates the credentials shared by the clients of all endpoints, so that STS credentials are fetched and
+     * refreshed once whatever the number of endpoints
+     */
+    private CredentialsProvider createCredentialsProvider(RepositoryMetaData repositoryMetaData)
+        throws CreateStsOssClientException {
         String ecsRamRole = OssClientSettings.ECS_RAM_ROLE.get(repositoryMetaData.settings()).toString();
         String stsToken = OssClientSettings.SECURITY_TOKEN.get(repositoryMetaData.settings()).toString();
         /*
@@ -257,14 +234,13 @@ public class OssStorageClient {
          * means use ECS metadata service to get ststoken for auto snapshot.
          * */
         if (StringUtils.isNotEmpty(ecsRamRole.toString())) {
-            client = createStsOssClient(repositoryMetaData);
+            return createStsCredentialsProvider(repositoryMetaData);
         } else if (StringUtils.isNotEmpty(stsToken)) {
             //no used still now.
-            client = createAKStsTokenClient(repositoryMetaData);
+            return createAKStsTokenCredentialsProvider(repositoryMetaData);
         } else {
-            client = createAKOssClient(repositoryMetaData);
+            return createAKCredentialsProvider(repositoryMetaData);
         }
-        return client;
     }
 
     private ClientConfiguration extractClientConfiguration(RepositoryMetaData repositoryMetaData) {
@@ -273,66 +249,65 @@ public class OssStorageClient {
         return configuration;
     }
 
-    private OSSClient createAKOssClient(RepositoryMetaData repositoryMetaData) {
+    private CredentialsProvider createAKCredentialsProvider(RepositoryMetaData repositoryMetaData) {
         SecureString accessKeyId =
             OssRepository.getSetting(OssClientSettings.ACCESS_KEY_ID, repositoryMetaData);
         SecureString secretAccessKey =
             OssRepository.getSetting(OssClientSettings.SECRET_ACCESS_KEY, repositoryMetaData);
-        String endpoint = OssRepository.getSetting(OssClientSettings.ENDPOINT, repositoryMetaData);
-        return new OSSClient(endpoint, accessKeyId.toString(), secretAccessKey.toString(),
-            extractClientConfiguration(repositoryMetaData));
+        return new DefaultCredentialProvider(accessKeyId.toString(), secretAccessKey.toString());
     }
 
-    private OSSClient createAKStsTokenClient(RepositoryMetaData repositoryMetaData) {
+    private CredentialsProvider createAKStsTokenCredentialsProvider(RepositoryMetaData repositoryMetaData) {
         SecureString securityToken = OssClientSettings.SECURITY_TOKEN.get(repositoryMetaData.settings());
         SecureString accessKeyId =
             OssRepository.getSetting(OssClientSettings.ACCESS_KEY_ID, repositoryMetaData);
         SecureString secretAccessKey =
             OssRepository.getSetting(OssClientSettings.SECRET_ACCESS_KEY, repositoryMetaData);
-        String endpoint = OssRepository.getSetting(OssClientSettings.ENDPOINT, repositoryMetaData);
-        return new OSSClient(endpoint, accessKeyId.toString(), secretAccessKey.toString(),
-            securityToken.toString(), extractClientConfiguration(repositoryMetaData));
+        return new DefaultCredentialProvider(accessKeyId.toString(), secretAccessKey.toString(),
+            securityToken.toString());
     }
 
-    private synchronized OSSClient createStsOssClient(RepositoryMetaData repositoryMetaData)
+    private CredentialsProvider createStsCredentialsProvider(RepositoryMetaData repositoryMetaData)
         throws CreateStsOssClientException {
-        if (isStsTokenExpired() || isTokenWillExpired()) {
-            try {
-                if (null == repositoryMetaData) {
-                    throw new IOException("repositoryMetaData is null");
-                }
-                String ecsRamRole = OssClientSettings.ECS_RAM_ROLE.get(repositoryMetaData.settings()).toString();
-                String endpoint = OssRepository.getSetting(OssClientSettings.ENDPOINT, repositoryMetaData);
+        StsToken stsToken = fetchStsToken(repositoryMetaData);
+        DefaultCredentialProvider credentialsProvider = new DefaultCredentialProvider(stsToken.credentials);
+        stsCredentialsRefresher =
+            new StsCredentialsRefresher(() -> fetchStsToken(repositoryMetaData), credentialsProvider, stsToken);
+        stsCredentialsRefresher.start();
+        return credentialsProvider;
+    }
 
-                String fullECSMetaDataServiceUrl = ECS_METADATA_SERVICE + ecsRamRole;
-                Response response = HttpClientHelper.httpRequest(fullECSMetaDataServiceUrl);
+    private StsToken fetchStsToken(RepositoryMetaData repositoryMetaData) throws CreateStsOssClientException {
+        try {
+            if (null == repositoryMetaData) {
+                throw new IOException("repositoryMetaData is null");
+            }
+            String ecsRamRole = OssClientSettings.ECS_RAM_ROLE.get(repositoryMetaData.settings()).toString();
+            String fullECSMetaDataServiceUrl = ECS_METADATA_SERVICE + ecsRamRole;
+            try (Response response = HttpClientHelper.httpRequest(fullECSMetaDataServiceUrl)) {
                 if (!response.isSuccessful()) {
                     throw new IOException("ECS meta service server error");
                 }
                 String jsonStringResponse = response.body().string();
                 JSONObject jsonObjectResponse = JSON.parseObject(jsonStringResponse);
-                String accessKeyId = jsonObjectResponse.getString(ACCESS_KEY_ID);
-                String accessKeySecret = jsonObjectResponse.getString(ACCESS_KEY_SECRET);
-                String securityToken = jsonObjectResponse.getString(SECURITY_TOKEN);
-                stsTokenExpiration = DateHelper.convertStringToDate(jsonObjectResponse.getString(EXPIRATION));
-                try {
-                    readWriteLock.writeLock().lock();
-                    if (null != this.client) {
-                        this.client.shutdown();
-                    }
-                    this.client = new OSSClient(endpoint, accessKeyId, accessKeySecret, securityToken,
-                        extractClientConfiguration(repositoryMetaData));
-                } finally {
-                    readWriteLock.writeLock().unlock();
-                }
-                response.close();
-            } catch (IOException e) {
-                logger.error("create stsOssClient exception", e);
-                throw new CreateStsOssClientException(e);
+                Credentials credentials = new DefaultCredentials(jsonObjectResponse.getString(ACCESS_KEY_ID),
+                    jsonObjectResponse.getString(ACCESS_KEY_SECRET), jsonObjectResponse.getString(SECURITY_TOKEN));
+                return new StsToken(credentials,
+                    DateHelper.convertStringToDate(jsonObjectResponse.getString(EXPIRATION)));
             }
-            return this.client;
-        } else {
-            return this.client;
+        } catch (IOException e) {
+            logger.error("fetch sts token exception", e);
+            throw new CreateStsOssClientException(e);
+        }
+    }
+
+    static class StsToken {
+        final Credentials credentials;
+        final Date expiration;
+
+        StsToken(Credentials credentials, Date expiration) {
+            this.credentials = credentials;
+            this.expiration = expiration;
         }
     }
 }
@@ -0,0 +1,185 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.io.Closeable;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * Renews STS credentials in the background, well before the current token expires, and swaps them
+ * into the credentials provider of the running client. Requests never wait on the ECS metadata service.
+ * Failed or premature renewals are retried with a jittered exponential backoff.
+ */
+public class StsCredentialsRefresher implements Closeable {
+    private static final Logger logger = LogManager.getLogger(StsCredentialsRefresher.class);
+
+    /**
+     * Credentials are renewed once the current token is valid for less than this.
+     */
+    static final long REFRESH_MARGIN_MS = TimeUnit.MINUTES.toMillis(15);
+    static final long MIN_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+    static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final CheckedSupplier<OssStorageClient.StsToken, CreateStsOssClientException> tokenSupplier;
+    private final DefaultCredentialProvider credentialsProvider;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Returns the current time in milliseconds
+     */
+    private final LongSupplier clock;
+    private volatile Date expiration;
+    private volatile long lastRefreshTime;
+    private volatile long lastRefreshTookMillis;
+    private final AtomicLong refreshCount = new AtomicLong();
+    private volatile int failedAttempts;
+    private volatile Exception lastFailure;
+
+    /**
+     * @param tokenSupplier       fetches a new token from the ECS metadata service
+     * @param credentialsProvider provider of the client the credentials are swapped into
+     * @param initialToken        token the client was created with
+     */
+    StsCredentialsRefresher(CheckedSupplier<OssStorageClient.StsToken, CreateStsOssClientException> tokenSupplier,
+        DefaultCredentialProvider credentialsProvider, OssStorageClient.StsToken initialToken) {
+        this(tokenSupplier, credentialsProvider, initialToken,
+            Executors.newSingleThreadScheduledExecutor(EsExecutors.daemonThreadFactory("oss_sts_refresher")),
+            System::currentTimeMillis);
+    }
+
+    /**
+     * @param scheduler runs the renewals, shut down on close
+     * @param clock     returns the current time in milliseconds
+     */
+    StsCredentialsRefresher(CheckedSupplier<OssStorageClient.StsToken, CreateStsOssClientException> tokenSupplier,
+        DefaultCredentialProvider credentialsProvider, OssStorageClient.StsToken initialToken,
+        ScheduledExecutorService scheduler, LongSupplier clock) {
+        this.tokenSupplier = tokenSupplier;
+        this.credentialsProvider = credentialsProvider;
+        this.expiration = initialToken.expiration;
+        this.clock = clock;
+        this.lastRefreshTime = clock.getAsLong();
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Schedules the first renewal of the initial token.
+     */
+    void start() {
+        schedule(nextRefreshDelay());
+    }
+
+    private void schedule(long delayMs) {
+        logger.debug("next sts credentials refresh in [{}] ms", delayMs);
+        try {
+            scheduler.schedule(this::refresh, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("sts credentials refresher is closed");
+        }
+    }
+
+    void refresh() {
+        final long start = System.nanoTime();
+        try {
+            OssStorageClient.StsToken token = tokenSupplier.get();
+            credentialsProvider.setCredentials(token.credentials);
+            expiration = token.expiration;
+            lastRefreshTime = clock.getAsLong();
+            lastFailure = null;
+        } catch (Exception e) {
+            lastFailure = e;
+            logger.warn("failed to refresh sts credentials, current token expires at [{}]", expiration, e);
+        }
+        refreshCount.incrementAndGet();
+        lastRefreshTookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        schedule(nextRefreshDelay());
+    }
+
+    /**
+     * Returns the delay until the token is within the refresh margin of its expiration, or a jittered
+     * retry delay if it already is, which happens after a failure or while the metadata service still
+     * hands out the old token.
+     */
+    private long nextRefreshDelay() {
+        long delay = expiration.getTime() - clock.getAsLong() - REFRESH_MARGIN_MS;
+        if (delay > 0 && lastFailure == null) {
+            failedAttempts = 0;
+            return delay;
+        }
+        int attempt = ++failedAttempts;
+        long backoff = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(attempt - 1, 16));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @return expiration of the credentials currently in use
+     */
+    public Date getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * @return true if the credentials currently in use have expired
+     */
+    public boolean isExpired() {
+        return expiration.getTime() <= clock.getAsLong();
+    }
+
+    /**
+     * @return time in milliseconds of the last successful refresh
+     */
+    public long getLastRefreshTime() {
+        return lastRefreshTime;
+    }
+
+    /**
+     * @return number of refresh attempts, successful or not
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return time in milliseconds the last refresh attempt took
+     */
+    public long getLastRefreshTookMillis() {
+        return lastRefreshTookMillis;
+    }
+
+    /**
+     * @return number of consecutive refresh attempts that did not yield a token valid beyond the refresh margin
+     */
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * @return the failure of the last refresh attempt, or null if it succeeded
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "StsCredentialsRefresher{expiration=" + expiration + ", lastRefreshTime=" + lastRefreshTime
+            + ", refreshCount=" + refreshCount + ", lastRefreshTookMillis=" + lastRefreshTookMillis
+            + ", failedAttempts=" + failedAttempts + ", lastFailure=" + lastFailure + "}";
+    }
+}
@@ -1,34 +1,58 @@
 package org.elasticsearch.plugin.repository.oss;
 
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.util.SetOnce;
 import org.elasticsearch.SpecialPermission;
 import org.elasticsearch.aliyun.oss.blobstore.OssBlobContainer;
+import org.elasticsearch.aliyun.oss.service.OssClientRegistry;
 import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.aliyun.oss.service.OssExecutors;
 import org.elasticsearch.aliyun.oss.service.OssService;
-import org.elasticsearch.aliyun.oss.service.OssServiceImpl;
 import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.component.LifecycleListener;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
 import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.RepositoryPlugin;
 import org.elasticsearch.repositories.Repository;
 import org.elasticsearch.repository.oss.OssRepository;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
 /**
  * A plugin to add a repository type that writes to and from OSS.
  * Created by yangkongshi on 2017/11/24.
  */
-public class OssRepositoryPlugin extends Plugin implements RepositoryPlugin {
+public class OssRepositoryPlugin extends Plugin implements RepositoryPlugin, ActionPlugin {
 
     private static final Logger logger = LogManager.getLogger(OssBlobContainer.class);
 
@@ -42,17 +66,69 @@ public class OssRepositoryPlugin extends Plugin implements RepositoryPlugin {
         });
     }
 
+    /**
+     * Clients shared by the repositories of this node
+     */
+    private final OssClientRegistry clientRegistry = new OssClientRegistry();
+    /**
+     * Open repositories of this node by name, for the stats endpoint
+     */
+    private final Map<String, OssRepository> repositories = ConcurrentCollections.newConcurrentMap();
+    /**
+     * Thread pools of the plugin, set once the node creates the plugin components
+     */
+    private final SetOnce<OssExecutors> executors = new SetOnce<>();
+
     protected OssService createStorageService(RepositoryMetaData metadata)
         throws CreateStsOssClientException {
-        return new OssServiceImpl(metadata);
+        return executors.get() == null ? clientRegistry.acquire(metadata)
+            : clientRegistry.acquire(metadata, executors.get());
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+        ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+        NamedXContentRegistry xContentRegistry, Environment environment, NodeEnvironment nodeEnvironment,
+        NamedWriteableRegistry namedWriteableRegistry) {
+        executors.set(OssExecutors.of(threadPool));
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return OssExecutors.getExecutorBuilders(settings);
     }
 
     @Override
     public Map<String, Repository.Factory> getRepositories(Environment env,
         NamedXContentRegistry namedXContentRegistry) {
         return Collections.singletonMap(OssRepository.TYPE,
-            (metadata) -> new OssRepository(metadata, env, namedXContentRegistry,
-                createStorageService(metadata)));
+            (metadata) -> trackRepository(new OssRepository(metadata, env, namedXContentRegistry,
+                createStorageService(metadata), executors.get())));
+    }
+
+    private OssRepository trackRepository(OssRepository repository) {
+        final String name = repository.getMetadata().name();
+        repositories.put(name, repository);
+        repository.addLifecycleListener(new LifecycleListener() {
+            @Override
+            public void afterClose() {
+                repositories.remove(name, repository);
+            }
+        });
+        return repository;
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController,
+        ClusterSettings clusterSettings, IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+        IndexNameExpressionResolver indexNameExpressionResolver, Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestOssStatsAction(settings, restController, repositories));
+    }
+
+    @Override
+    public void close() throws IOException {
+        clientRegistry.close();
     }
 
     @Override
@@ -60,6 +136,20 @@ public class OssRepositoryPlugin extends Plugin implements RepositoryPlugin {
         return Arrays.asList(OssClientSettings.ACCESS_KEY_ID, OssClientSettings.SECRET_ACCESS_KEY,
             OssClientSettings.ENDPOINT, OssClientSettings.BUCKET, OssClientSettings.SECURITY_TOKEN,
             OssClientSettings.BASE_PATH, OssClientSettings.COMPRESS, OssClientSettings.CHUNK_SIZE,
-            OssClientSettings.AUTO_SNAPSHOT_BUCKET, OssClientSettings.ECS_RAM_ROLE, OssClientSettings.SUPPORT_CNAME);
+            OssClientSettings.AUTO_SNAPSHOT_BUCKET, OssClientSettings.ECS_RAM_ROLE, OssClientSettings.SUPPORT_CNAME,
+            OssClientSettings.MULTIPART_UPLOAD_THRESHOLD, OssClientSettings.MULTIPART_PART_SIZE,
+            OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY, OssClientSettings.DOWNLOAD_RANGE_SIZE,
+            OssClientSettings.DOWNLOAD_CONCURRENCY, OssClientSettings.DELETE_CONCURRENCY,
+            OssClientSettings.MULTIPART_COPY_THRESHOLD, OssClientSettings.MULTIPART_COPY_PART_SIZE,
+            OssClientSettings.MAX_REQUEST_RATE, OssClientSettings.THROTTLE_MAX_RETRIES,
+            OssClientSettings.MULTIPART_PART_MAX_RETRIES, OssClientSettings.STALE_UPLOAD_MAX_AGE,
+            OssClientSettings.METADATA_CACHE_SIZE, OssClientSettings.CONTAINER_CACHE_TTL,
+            OssClientSettings.CONTAINER_CACHE_MAX_BLOBS, OssClientSettings.COMPRESS_DATA,
+            OssClientSettings.COMPRESSION_CONCURRENCY, OssClientSettings.UPLOAD_BUFFER_POOL_SIZE,
+            OssClientSettings.MAX_IN_FLIGHT_REQUESTS, OssClientSettings.ENDPOINTS,
+            OssClientSettings.ENDPOINT_PROBE_INTERVAL, OssClientSettings.HEDGED_READS,
+            OssClientSettings.HEDGED_READ_PERCENTILE, OssClientSettings.HEDGED_READ_MIN_DELAY,
+            OssClientSettings.HEDGED_READ_MAX_FRACTION, OssClientSettings.READ_AHEAD_SIZE,
+            OssClientSettings.DOWNLOAD_MAX_RETRIES, OssClientSettings.BLOB_LOOKUP_CONCURRENCY);
     }
 }
@@ -0,0 +1,80 @@
+package org.elasticsearch.plugin.repository.oss;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.aliyun.oss.service.StsCredentialsRefresher;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.repositories.RepositoryMissingException;
+import org.elasticsearch.repository.oss.OssRepository;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Returns the OSS request stats of the oss repositories of the node handling the request,
+ * with {@code GET _oss/stats} or {@code GET _oss/stats/{repository}}.
+ */
+public class RestOssStatsAction extends BaseRestHandler {
+
+    private final Map<String, OssRepository> repositories;
+
+    public RestOssStatsAction(Settings settings, RestController controller, Map<String, OssRepository> repositories) {
+        super(settings);
+        this.repositories = repositories;
+        controller.registerHandler(GET, "/_oss/stats", this);
+        controller.registerHandler(GET, "/_oss/stats/{repository}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "oss_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        final Map<String, OssRepository> selected = new TreeMap<>(repositories);
+        final String name = request.param("repository");
+        if (name != null) {
+            OssRepository repository = selected.get(name);
+            if (repository == null) {
+                throw new RepositoryMissingException(name);
+            }
+            selected.clear();
+            selected.put(name, repository);
+        }
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.startObject("repositories");
+            for (Map.Entry<String, OssRepository> repository : selected.entrySet()) {
+                builder.startObject(repository.getKey());
+                builder.field("bucket", repository.getValue().getBucket());
+                repository.getValue().getStats().toXContent(builder, request);
+                StsCredentialsRefresher refresher = repository.getValue().getOssService().getStsCredentialsRefresher();
+                if (refresher != null) {
+                    builder.startObject("sts");
+                    builder.field("expiration", refresher.getExpiration().getTime());
+                    builder.field("last_refresh_time", refresher.getLastRefreshTime());
+                    builder.field("last_refresh_took_millis", refresher.getLastRefreshTookMillis());
+                    builder.field("refresh_count", refresher.getRefreshCount());
+                    builder.field("failed_attempts", refresher.getFailedAttempts());
+                    Exception lastFailure = refresher.getLastFailure();
+                    builder.field("last_failure", lastFailure == null ? null : lastFailure.toString());
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
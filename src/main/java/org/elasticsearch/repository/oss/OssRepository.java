@@ -1,13 +1,16 @@
 package org.elasticsearch.repository.oss;
 
 import java.io.File;
+import java.nio.file.Path;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.aliyun.oss.blobstore.OssBlobContainer;
 import org.elasticsearch.aliyun.oss.blobstore.OssBlobStore;
+import org.elasticsearch.aliyun.oss.blobstore.OssStats;
 import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.aliyun.oss.service.OssExecutors;
 import org.elasticsearch.aliyun.oss.service.OssService;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
 import org.elasticsearch.common.Strings;
@@ -36,11 +39,24 @@ public class OssRepository extends BlobStoreRepository {
     private final ByteSizeValue chunkSize;
     private final String bucket;
     private final OssService ossService;
+    private final OssStats stats = new OssStats();
+    private final Path metadataCacheDirectory;
+    /**
+     * Thread pools of the plugin, null if the blob store creates executors of its own
+     */
+    private final OssExecutors executors;
 
     public OssRepository(RepositoryMetaData metadata, Environment env,
         NamedXContentRegistry namedXContentRegistry, OssService ossService) {
+        this(metadata, env, namedXContentRegistry, ossService, null);
+    }
+
+    public OssRepository(RepositoryMetaData metadata, Environment env,
+        NamedXContentRegistry namedXContentRegistry, OssService ossService, OssExecutors executors) {
         super(metadata, env.settings(), namedXContentRegistry);
         this.ossService = ossService;
+        this.executors = executors;
+        this.metadataCacheDirectory = env.tmpFile().resolve("oss-metadata-cache");
         String ecsRamRole = OssClientSettings.ECS_RAM_ROLE.get(metadata.settings()).toString();
         if (StringUtils.isNotEmpty(ecsRamRole)) {
             this.bucket = getSetting(OssClientSettings.AUTO_SNAPSHOT_BUCKET, metadata).toString();
@@ -65,7 +81,20 @@ public class OssRepository extends BlobStoreRepository {
 
     @Override
     protected BlobStore createBlobStore() throws Exception {
-        return new OssBlobStore(bucket, ossService);
+        OssBlobStore blobStore = new OssBlobStore(bucket, ossService, metadata.settings(), stats,
+            executors == null ? OssExecutors.newPrivate() : executors);
+        blobStore.startStaleUploadSweep(basePath);
+        blobStore.startMetadataCache(metadataCacheDirectory);
+        return blobStore;
+    }
+
+    /**
+     * Releases the OSS client, also when the blob store was never created.
+     */
+    @Override
+    protected void doClose() {
+        super.doClose();
+        ossService.shutdown();
     }
 
     @Override
@@ -96,6 +125,17 @@ public class OssRepository extends BlobStoreRepository {
         return value;
     }
 
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return stats of the OSS requests sent by this repository
+     */
+    public OssStats getStats() {
+        return stats;
+    }
+
     /** mainly for test **/
     public OssService getOssService() {
         return ossService;
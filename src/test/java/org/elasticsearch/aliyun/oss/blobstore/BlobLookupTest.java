@@ -0,0 +1,123 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests looking up the existence and size of many blobs at once.
+ */
+public class BlobLookupTest extends ESTestCase {
+
+    private static Map<String, Integer> writeBlobs(BlobContainer container, int count) throws IOException {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String blobName = String.format(Locale.ROOT, "__%05d", i);
+            int size = randomIntBetween(0, 16);
+            container.writeBlob(blobName, new ByteArrayInputStream(randomByteArrayOfLength(size)), size, true);
+            sizes.put(blobName, size);
+        }
+        return sizes;
+    }
+
+    private static void assertFound(Map<String, Integer> sizes, List<String> blobNames,
+        Map<String, BlobMetaData> blobs) {
+        int found = 0;
+        for (String blobName : blobNames) {
+            Integer size = sizes.get(blobName);
+            if (size == null) {
+                assertFalse(blobs.containsKey(blobName));
+            } else {
+                found++;
+                assertEquals(size.longValue(), blobs.get(blobName).length());
+            }
+        }
+        assertEquals(found, blobs.size());
+    }
+
+    public void testDenseNamesListed() throws IOException {
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), Settings.EMPTY)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("indices").add("shard"));
+            Map<String, Integer> sizes = writeBlobs(container, 2500);
+            List<String> blobNames = new ArrayList<>();
+            for (int i = 0; i < 2000; i += randomIntBetween(1, 3)) {
+                blobNames.add(String.format(Locale.ROOT, "__%05d", i));
+            }
+            blobNames.add("__00500a");
+            blobNames.add("__99999");
+            long lists = store.getStats().getCount(OssStats.Operation.LIST);
+            long heads = store.getStats().getCount(OssStats.Operation.HEAD);
+            Map<String, BlobMetaData> blobs = ((OssBlobContainer)container).lookupBlobs(blobNames);
+            assertFound(sizes, blobNames, blobs);
+            assertTrue(store.getStats().getCount(OssStats.Operation.LIST) - lists <= 3);
+            assertTrue(store.getStats().getCount(OssStats.Operation.HEAD) - heads < BlobLookup.MIN_NAMES_PER_PAGE);
+        }
+    }
+
+    public void testSparseNamesLookedUpWithHeads() throws IOException {
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.BLOB_LOOKUP_CONCURRENCY.getKey(), randomIntBetween(1, 8)).build();
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("shard"));
+            Map<String, Integer> sizes = writeBlobs(container, 3000);
+            List<String> blobNames = new ArrayList<>();
+            for (int i = 0; i < 3000; i += 250) {
+                blobNames.add(String.format(Locale.ROOT, "__%05d", i));
+            }
+            blobNames.add("missing");
+            long lists = store.getStats().getCount(OssStats.Operation.LIST);
+            Map<String, BlobMetaData> blobs = ((OssBlobContainer)container).lookupBlobs(blobNames);
+            assertFound(sizes, blobNames, blobs);
+            // the first page answers for too few names to list the next ones
+            assertEquals(1, store.getStats().getCount(OssStats.Operation.LIST) - lists);
+        }
+    }
+
+    public void testNamesWithDelimiterLookedUpWithHeads() throws IOException {
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), Settings.EMPTY)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("shard"));
+            Map<String, Integer> sizes = writeBlobs(container, 10);
+            store.blobContainer(new BlobPath().add("shard").add("child"))
+                .writeBlob("blob", new ByteArrayInputStream(new byte[3]), 3, true);
+            sizes.put("child/blob", 3);
+            List<String> blobNames = new ArrayList<>(sizes.keySet());
+            blobNames.add("child/missing");
+            Map<String, BlobMetaData> blobs = ((OssBlobContainer)container).lookupBlobs(blobNames);
+            assertFound(sizes, blobNames, blobs);
+        }
+    }
+
+    public void testLookupAnsweredFromCachedListing() throws IOException {
+        Settings settings = Settings.builder().put(OssClientSettings.CONTAINER_CACHE_TTL.getKey(), "1h").build();
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("shard"));
+            Map<String, Integer> sizes = writeBlobs(container, 20);
+            container.listBlobs();
+            long lists = store.getStats().getCount(OssStats.Operation.LIST);
+            long heads = store.getStats().getCount(OssStats.Operation.HEAD);
+            List<String> blobNames = Arrays.asList("__00001", "__00019", "__00020");
+            Map<String, BlobMetaData> blobs = ((OssBlobContainer)container).lookupBlobs(blobNames);
+            assertFound(sizes, blobNames, blobs);
+            assertEquals(lists, store.getStats().getCount(OssStats.Operation.LIST));
+            assertEquals(heads, store.getStats().getCount(OssStats.Operation.HEAD));
+        }
+    }
+
+    public void testCommonPrefix() {
+        assertEquals("__0", BlobLookup.commonPrefix("__001", "__099"));
+        assertEquals("", BlobLookup.commonPrefix("a", "b"));
+        assertEquals("ab", BlobLookup.commonPrefix("ab", "abc"));
+    }
+}
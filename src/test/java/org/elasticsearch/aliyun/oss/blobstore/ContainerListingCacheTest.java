@@ -0,0 +1,99 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests existence checks and listings answered from the container listing cache.
+ */
+public class ContainerListingCacheTest extends ESTestCase {
+
+    public void testLookupsAnsweredFromListing() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder().put(OssClientSettings.CONTAINER_CACHE_TTL.getKey(), "1h").build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("shard"));
+            writeBlob(container, "__1", 10);
+            writeBlob(container, "index-1", 20);
+            store.blobContainer(new BlobPath().add("shard").add("child")).writeBlob("__2",
+                new ByteArrayInputStream(new byte[5]), 5, true);
+
+            assertEquals(2, container.listBlobs().size());
+            long lists = store.getStats().getCount(OssStats.Operation.LIST);
+            long heads = store.getStats().getCount(OssStats.Operation.HEAD);
+
+            assertTrue(container.blobExists("__1"));
+            assertFalse(container.blobExists("__2"));
+            Map<String, BlobMetaData> indices = container.listBlobsByPrefix("index-");
+            assertEquals(1, indices.size());
+            assertEquals(20, indices.get("index-1").length());
+
+            writeBlob(container, "__3", 30);
+            container.deleteBlob("__1");
+            Map<String, BlobMetaData> blobs = container.listBlobs();
+            assertEquals(2, blobs.size());
+            assertEquals(30, blobs.get("__3").length());
+            assertFalse(container.blobExists("__1"));
+
+            assertEquals(lists, store.getStats().getCount(OssStats.Operation.LIST));
+            assertEquals(heads, store.getStats().getCount(OssStats.Operation.HEAD));
+            assertEquals(6, store.getStats().getContainerCacheHits());
+
+            store.delete(new BlobPath().add("shard"));
+            assertFalse(container.blobExists("__3"));
+            assertEquals(heads + 1, store.getStats().getCount(OssStats.Operation.HEAD));
+        }
+    }
+
+    public void testCachedSizesOfCompressedBlobsMatchListing() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.CONTAINER_CACHE_TTL.getKey(), "1h")
+            .put(OssClientSettings.COMPRESS_DATA.getKey(), true)
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings);
+             OssBlobStore uncached = new OssBlobStore("bucket", client)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("shard"));
+            assertTrue(container.listBlobs().isEmpty());
+            for (int size : new int[] {4096, randomIntBetween(2 * 1024 * 1024, 3 * 1024 * 1024)}) {
+                container.writeBlob("__" + size, new ByteArrayInputStream(new byte[size]), size, true);
+            }
+            writeBlob(container, "index-1", 20);
+
+            Map<String, BlobMetaData> cached = container.listBlobs();
+            Map<String, BlobMetaData> listed = uncached.blobContainer(new BlobPath().add("shard")).listBlobs();
+            assertEquals(listed.keySet(), cached.keySet());
+            for (BlobMetaData blob : listed.values()) {
+                assertEquals(blob.name(), blob.length(), cached.get(blob.name()).length());
+            }
+            assertEquals(20, cached.get("index-1").length());
+        }
+    }
+
+    public void testListingNotCachedIfChangedWhileListing() {
+        ContainerListingCache cache = new ContainerListingCache(TimeValue.timeValueHours(1), 100);
+        long listingStart = System.nanoTime();
+        cache.onWrite("path/", "blob", 1);
+        cache.put("path/", Collections.emptyMap(), listingStart);
+        assertNull(cache.get("path/"));
+        cache.put("path/", Collections.singletonMap("blob", 1L), System.nanoTime());
+        assertEquals(1L, (long)cache.get("path/").get("blob"));
+    }
+
+    private static void writeBlob(BlobContainer container, String blobName, int size) throws IOException {
+        container.writeBlob(blobName, new ByteArrayInputStream(randomByteArrayOfLength(size)), size, true);
+    }
+}
@@ -0,0 +1,134 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectMetadata;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests GET requests hedged once they are slower than most requests.
+ */
+public class HedgedReaderTest extends ESTestCase {
+
+    /**
+     * Client whose GET requests stall until released while {@code stall} is set
+     */
+    private static class StallingOssService extends MockOssService {
+        final AtomicBoolean stall = new AtomicBoolean();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public OSSObject getObject(GetObjectRequest getObjectRequest)
+            throws OSSException, ClientException, IOException {
+            requests.incrementAndGet();
+            if (stall.compareAndSet(true, false)) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new ClientException("interrupted", e);
+                }
+            }
+            return super.getObject(getObjectRequest);
+        }
+    }
+
+    private static void warmUp(HedgedReader reader, String key) throws IOException {
+        for (int i = 0; i < HedgedReader.MIN_SAMPLES; i++) {
+            reader.getObject(new GetObjectRequest("bucket", key)).close();
+        }
+    }
+
+    public void testStalledRequestHedged() throws IOException {
+        StallingOssService client = new StallingOssService();
+        client.putObject("bucket", "blob", new ByteArrayInputStream(new byte[] {1, 2, 3}), new ObjectMetadata());
+        OssStats stats = new OssStats();
+        // the delay is long enough for the request to be stalled before its hedge is sent
+        try (HedgedReader reader = new HedgedReader(client, stats, 95, TimeValue.timeValueMillis(50), 1.0)) {
+            assertEquals(0, reader.getDelayNanos());
+            warmUp(reader, "blob");
+            assertTrue(reader.getDelayNanos() >= TimeValue.timeValueMillis(50).nanos());
+
+            client.stall.set(true);
+            try (InputStream stream = reader.getObject(new GetObjectRequest("bucket", "blob")).getObjectContent()) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(new byte[] {1, 2, 3}, outputStream.toByteArray());
+            } finally {
+                client.release.countDown();
+            }
+            assertEquals(HedgedReader.MIN_SAMPLES + 2, client.requests.get());
+            assertEquals(1, stats.getHedgesSent());
+            assertEquals(1, stats.getHedgesWon());
+            assertEquals(0, stats.getHedgesOverBudget());
+        }
+    }
+
+    public void testHedgesBoundedByBudget() throws IOException {
+        StallingOssService client = new StallingOssService();
+        client.putObject("bucket", "blob", new ByteArrayInputStream(new byte[] {1}), new ObjectMetadata());
+        OssStats stats = new OssStats();
+        try (HedgedReader reader = new HedgedReader(client, stats, 95, TimeValue.timeValueMillis(1), 0.0)) {
+            warmUp(reader, "blob");
+            client.stall.set(true);
+            Thread releaser = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                client.release.countDown();
+            });
+            releaser.start();
+            reader.getObject(new GetObjectRequest("bucket", "blob")).close();
+            assertEquals(HedgedReader.MIN_SAMPLES + 1, client.requests.get());
+            assertEquals(0, stats.getHedgesSent());
+            assertEquals(1, stats.getHedgesOverBudget());
+        }
+    }
+
+    public void testFailureReturnedOnceNoAttemptLeft() throws IOException {
+        OssStats stats = new OssStats();
+        try (HedgedReader reader = new HedgedReader(new MockOssService(), stats, 95, TimeValue.ZERO, 1.0)) {
+            OSSException e = expectThrows(OSSException.class,
+                () -> reader.getObject(new GetObjectRequest("bucket", "missing")));
+            assertEquals("NoSuchKey", e.getErrorCode());
+            assertEquals(0, stats.getHedgesSent());
+        }
+    }
+
+    public void testHedgedReadsOfBlobStore() throws IOException {
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.HEDGED_READS.getKey(), true)
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), randomIntBetween(1, 4))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 512 * 1024));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            try (InputStream stream = container.readBlob("blob")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests the disk cache of immutable repository metadata blobs.
+ */
+public class MetadataBlobCacheTest extends ESTestCase {
+
+    public void testCacheableBlobs() {
+        assertTrue(MetadataBlobCache.isCacheable("base/index-12"));
+        assertTrue(MetadataBlobCache.isCacheable("base/snap-2Tbt2LmYSUaBJAZbWAHAIg.dat"));
+        assertTrue(MetadataBlobCache.isCacheable("base/indices/Mx1o_Wr9SzK0VSzdS9BmRw/meta-2Tbt2LmYSUaBJAZbWAH.dat"));
+        assertTrue(MetadataBlobCache.isCacheable("base/indices/Mx1o_Wr9SzK0VSzdS9BmRw/0/index-3"));
+        assertFalse(MetadataBlobCache.isCacheable("base/index.latest"));
+        assertFalse(MetadataBlobCache.isCacheable("base/incompatible-snapshots"));
+        assertFalse(MetadataBlobCache.isCacheable("base/indices/Mx1o_Wr9SzK0VSzdS9BmRw/0/__1"));
+        assertFalse(MetadataBlobCache.isCacheable("base/pending-index-3"));
+    }
+
+    public void testBlobsReadOnce() throws IOException {
+        OssStats stats = new OssStats();
+        Path directory = createTempDir();
+        try (MetadataBlobCache cache = new MetadataBlobCache(directory, 1024 * 1024, stats)) {
+            byte[] data = randomByteArrayOfLength(randomIntBetween(0, 1024));
+            AtomicInteger loads = new AtomicInteger();
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(data, read(cache, "index-1", data, loads));
+            }
+            assertEquals(1, loads.get());
+            assertEquals(2, stats.getMetadataCacheHits());
+            assertEquals(1, stats.getMetadataCacheMisses());
+            assertEquals(data.length, cache.getSizeInBytes());
+
+            cache.invalidate("index-1");
+            assertEquals(0, cache.getSizeInBytes());
+            assertArrayEquals(data, read(cache, "index-1", data, loads));
+            assertEquals(2, loads.get());
+        }
+        assertFalse(Files.exists(directory));
+    }
+
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        try (MetadataBlobCache cache = new MetadataBlobCache(createTempDir(), 250, new OssStats())) {
+            AtomicInteger loads = new AtomicInteger();
+            byte[] data = randomByteArrayOfLength(100);
+            read(cache, "a/snap-1.dat", data, loads);
+            read(cache, "a/snap-2.dat", data, loads);
+            read(cache, "a/snap-1.dat", data, loads);
+            read(cache, "b/snap-3.dat", data, loads);
+            assertEquals(3, loads.get());
+            assertEquals(200, cache.getSizeInBytes());
+
+            read(cache, "a/snap-1.dat", data, loads);
+            assertEquals(3, loads.get());
+            read(cache, "a/snap-2.dat", data, loads);
+            assertEquals(4, loads.get());
+
+            cache.invalidateByPrefix("a/");
+            assertEquals(0, cache.getSizeInBytes());
+        }
+    }
+
+    public void testInvalidatedWhileLoadingNotCached() throws Exception {
+        try (MetadataBlobCache cache = new MetadataBlobCache(createTempDir(), 1024 * 1024, new OssStats())) {
+            byte[] data = randomByteArrayOfLength(100);
+            CountDownLatch loading = new CountDownLatch(1);
+            CountDownLatch invalidated = new CountDownLatch(1);
+            AtomicReference<byte[]> loaded = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try (InputStream stream = cache.readBlob("a/index-1", () -> {
+                    loading.countDown();
+                    try {
+                        invalidated.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new ByteArrayInputStream(data);
+                })) {
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    Streams.copy(stream, outputStream);
+                    loaded.set(outputStream.toByteArray());
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            reader.start();
+            loading.await();
+            if (randomBoolean()) {
+                cache.invalidate("a/index-1");
+            } else {
+                cache.invalidateByPrefix("a/");
+            }
+            invalidated.countDown();
+            reader.join();
+            assertArrayEquals(data, loaded.get());
+            assertEquals(0, cache.getSizeInBytes());
+
+            AtomicInteger loads = new AtomicInteger();
+            read(cache, "a/index-1", data, loads);
+            assertEquals(1, loads.get());
+        }
+    }
+
+    public void testBlobDeletedWhileLoadingNotCached() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        MockOssService client = new MockOssService() {
+            @Override
+            public OSSObject getObject(GetObjectRequest getObjectRequest)
+                throws OSSException, ClientException, IOException {
+                OSSObject object = super.getObject(getObjectRequest);
+                if (loading.getCount() > 0) {
+                    loading.countDown();
+                    try {
+                        deleted.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return object;
+            }
+        };
+        Settings settings = Settings.builder().put(OssClientSettings.METADATA_CACHE_SIZE.getKey(), "1mb").build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            store.startMetadataCache(createTempDir());
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(100);
+            container.writeBlob("index-1", new ByteArrayInputStream(data), data.length, true);
+
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try (InputStream stream = container.readBlob("index-1")) {
+                    Streams.copy(stream, new ByteArrayOutputStream());
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            loading.await();
+            container.deleteBlobIgnoringIfNotExists("index-1");
+            deleted.countDown();
+            reader.join();
+            assertNull(failure.get());
+            expectThrows(NoSuchFileException.class, () -> container.readBlob("index-1"));
+        }
+    }
+
+    private static byte[] read(MetadataBlobCache cache, String key, byte[] data, AtomicInteger loads)
+        throws IOException {
+        try (InputStream stream = cache.readBlob(key, () -> {
+            loads.incrementAndGet();
+            return new ByteArrayInputStream(data);
+        })) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Streams.copy(stream, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+}
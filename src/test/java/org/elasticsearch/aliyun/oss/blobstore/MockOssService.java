@@ -4,25 +4,54 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadResult;
 import com.aliyun.oss.model.CopyObjectResult;
 import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListMultipartUploadsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ListPartsRequest;
+import com.aliyun.oss.model.MultipartUpload;
+import com.aliyun.oss.model.MultipartUploadListing;
 import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.OSSObjectSummary;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.PartListing;
+import com.aliyun.oss.model.PartSummary;
 import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartCopyResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
 import org.elasticsearch.aliyun.oss.service.OssService;
-import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import org.elasticsearch.aliyun.oss.service.StsCredentialsRefresher;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.hash.MessageDigests;
 import org.elasticsearch.common.io.Streams;
 
 /**
@@ -31,6 +60,17 @@ import org.elasticsearch.common.io.Streams;
 public class MockOssService extends AbstractComponent implements OssService {
 
     protected final Map<String, OSSObject> blobs = new ConcurrentHashMap<>();
+    protected final Map<String, Map<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<>();
+    protected final Map<String, MultipartUpload> multipartUploadInfos = new ConcurrentHashMap<>();
+    protected final Map<String, Map<String, String>> multipartUserMetadata = new ConcurrentHashMap<>();
+    /**
+     * Number of upcoming put and get requests to reject as throttled
+     */
+    protected final AtomicInteger throttledRequests = new AtomicInteger();
+    /**
+     * Number of upcoming part uploads to fail with a network error
+     */
+    protected final AtomicInteger failedPartUploads = new AtomicInteger();
 
     public MockOssService() {
         super();
@@ -39,10 +79,13 @@ public class MockOssService extends AbstractComponent implements OssService {
     @Override
     public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
         throws OSSException, ClientException {
+        maybeThrottle();
         for (String key : deleteObjectsRequest.getKeys()) {
             blobs.remove(key);
         }
-        return null;
+        // like OSS, verbose responses list every requested key as deleted, whether it existed or not
+        return new DeleteObjectsResult(deleteObjectsRequest.isQuiet() ? Collections.emptyList()
+            : new ArrayList<>(deleteObjectsRequest.getKeys()));
     }
 
     @Override
@@ -61,16 +104,33 @@ public class MockOssService extends AbstractComponent implements OssService {
     public ObjectListing listObjects(ListObjectsRequest listObjectsRequest)
         throws OSSException, ClientException {
         ObjectListing objectListing = new ObjectListing();
-        objectListing.setTruncated(false);
-        String prefix = listObjectsRequest.getPrefix();
-        blobs.forEach((String blobName, OSSObject ossObject) -> {
-            if (!Strings.hasLength(prefix) || startsWithIgnoreCase(blobName, prefix)) {
-                OSSObjectSummary summary = new OSSObjectSummary();
-                summary.setKey(blobName);
-                summary.setSize(ossObject.getObjectMetadata().getContentLength());
-                objectListing.addObjectSummary(summary);
+        String prefix = listObjectsRequest.getPrefix() == null ? "" : listObjectsRequest.getPrefix();
+        String marker = listObjectsRequest.getMarker();
+        String delimiter = listObjectsRequest.getDelimiter();
+        int maxKeys = listObjectsRequest.getMaxKeys() == null ? 100 : listObjectsRequest.getMaxKeys();
+        SortedMap<String, OSSObject> sortedBlobs = new TreeMap<>(blobs);
+        for (Map.Entry<String, OSSObject> blob : sortedBlobs.entrySet()) {
+            String blobName = blob.getKey();
+            if (!startsWithIgnoreCase(blobName, prefix) || (marker != null && blobName.compareTo(marker) <= 0)) {
+                continue;
+            }
+            if (objectListing.getObjectSummaries().size() == maxKeys) {
+                objectListing.setTruncated(true);
+                break;
             }
-        });
+            if (Strings.hasLength(delimiter) && blobName.indexOf(delimiter, prefix.length()) >= 0) {
+                String commonPrefix = blobName.substring(0, blobName.indexOf(delimiter, prefix.length()) + 1);
+                if (!objectListing.getCommonPrefixes().contains(commonPrefix)) {
+                    objectListing.addCommonPrefix(commonPrefix);
+                }
+                continue;
+            }
+            OSSObjectSummary summary = new OSSObjectSummary();
+            summary.setKey(blobName);
+            summary.setSize(blob.getValue().getObjectMetadata().getContentLength());
+            objectListing.addObjectSummary(summary);
+            objectListing.setNextMarker(blobName);
+        }
         return objectListing;
     }
 
@@ -79,19 +139,118 @@ public class MockOssService extends AbstractComponent implements OssService {
         throws OSSException, ClientException, IOException {
         OSSObject ossObject = new OSSObject();
         synchronized (this) {
-            OSSObject oldObject = blobs.get(key);
+            OSSObject oldObject = getExistingObject(key);
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             Streams.copy(oldObject.getObjectContent(), outputStream);
             oldObject.setObjectContent(new ByteArrayInputStream(outputStream.toByteArray()));
             ossObject.setObjectContent(new ByteArrayInputStream(outputStream.toByteArray()));
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setUserMetadata(getUserMetadata(oldObject));
+            ossObject.setObjectMetadata(metadata);
         }
         return ossObject;
     }
 
+    @Override
+    public OSSObject getObject(GetObjectRequest getObjectRequest)
+        throws OSSException, ClientException, IOException {
+        maybeThrottle();
+        byte[] content = getContent(getObjectRequest.getKey());
+        checkETag(getObjectRequest.getKey(), content, getObjectRequest.getMatchingETagConstraints());
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(getUserMetadata(blobs.get(getObjectRequest.getKey())));
+        metadata.setHeader("ETag", eTag(content));
+        long[] range = getObjectRequest.getRange();
+        // like OSS, an invalid range or one ending past the end of the object returns the whole object
+        if (range != null && range[0] >= 0 && range[0] < content.length && range[1] < content.length
+            && (range[1] < 0 || range[1] >= range[0])) {
+            int start = (int)range[0];
+            int end = range[1] < 0 ? content.length - 1 : (int)range[1];
+            metadata.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            content = Arrays.copyOfRange(content, start, end + 1);
+        }
+        metadata.setContentLength(content.length);
+        OSSObject ossObject = new OSSObject();
+        ossObject.setObjectMetadata(metadata);
+        ossObject.setObjectContent(new ByteArrayInputStream(content));
+        return ossObject;
+    }
+
+    private static String eTag(byte[] content) {
+        return Integer.toHexString(Arrays.hashCode(content));
+    }
+
+    /**
+     * Like OSS, the ETag of a part is the MD5 digest of its content
+     */
+    private static String partETag(byte[] content) {
+        return MessageDigests.toHexString(MessageDigests.md5().digest(content)).toUpperCase(Locale.ROOT);
+    }
+
+    private static void checkETag(String key, byte[] content, List<String> matchingETags) {
+        if (matchingETags.isEmpty() == false && matchingETags.contains(eTag(content)) == false) {
+            throw new OSSException("ETag of [" + key + "] does not match",
+                OSSErrorCode.PRECONDITION_FAILED, null, null, null, null, null);
+        }
+    }
+
+    private byte[] getContentUnchecked(String key) {
+        try {
+            return getContent(key);
+        } catch (IOException e) {
+            throw new ClientException(e);
+        }
+    }
+
+    private byte[] getContent(String key) throws IOException {
+        synchronized (this) {
+            OSSObject ossObject = getExistingObject(key);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Streams.copy(ossObject.getObjectContent(), outputStream);
+            ossObject.setObjectContent(new ByteArrayInputStream(outputStream.toByteArray()));
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static Map<String, String> getUserMetadata(OSSObject ossObject) {
+        if (ossObject == null || ossObject.getObjectMetadata() == null) {
+            return new HashMap<>();
+        }
+        return new HashMap<>(ossObject.getObjectMetadata().getUserMetadata());
+    }
+
+    private void maybeThrottle() {
+        if (throttledRequests.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new OSSException("Please reduce your request rate.", "SlowDown", null, null, null, null, null);
+        }
+    }
+
+    private OSSObject getExistingObject(String key) {
+        OSSObject ossObject = blobs.get(key);
+        if (ossObject == null) {
+            throw new OSSException("[" + key + "] does not exist", OSSErrorCode.NO_SUCH_KEY,
+                null, null, null, null, null);
+        }
+        return ossObject;
+    }
+
+    /**
+     * Rejects the write like OSS does if the request forbids overwriting an existing object
+     */
+    private void checkOverwrite(String key, Map<String, ?> headers) {
+        if (Boolean.parseBoolean(String.valueOf(headers.get(OssBlobStore.FORBID_OVERWRITE_HEADER)))
+            && blobs.containsKey(key)) {
+            throw new OSSException("[" + key + "] already exists", "FileAlreadyExists",
+                null, null, null, null, null);
+        }
+    }
+
     @Override
     public PutObjectResult putObject(String bucketName, String key, InputStream input,
         ObjectMetadata metadata) throws OSSException, ClientException, IOException {
+        maybeThrottle();
         synchronized (this) {
+            checkOverwrite(key, metadata.getRawMetadata());
             OSSObject ossObject = new OSSObject();
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             Streams.copy(input, outputStream);
@@ -116,14 +275,156 @@ public class MockOssService extends AbstractComponent implements OssService {
         return null;
     }
 
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        checkOverwrite(request.getKey(), request.getHeaders());
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new ConcurrentHashMap<>());
+        MultipartUpload upload = new MultipartUpload();
+        upload.setKey(request.getKey());
+        upload.setUploadId(uploadId);
+        upload.setInitiated(new Date());
+        multipartUploadInfos.put(uploadId, upload);
+        if (request.getObjectMetadata() != null) {
+            multipartUserMetadata.put(uploadId, new HashMap<>(request.getObjectMetadata().getUserMetadata()));
+        }
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) throws OSSException, ClientException {
+        Map<Integer, byte[]> parts = getMultipartUpload(request.getUploadId());
+        if (failedPartUploads.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new ClientException("connection reset");
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            Streams.copy(request.getInputStream(), outputStream);
+        } catch (IOException e) {
+            throw new ClientException(e);
+        }
+        parts.put(request.getPartNumber(), outputStream.toByteArray());
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(partETag(outputStream.toByteArray()));
+        return result;
+    }
+
+    @Override
+    public UploadPartCopyResult uploadPartCopy(UploadPartCopyRequest request) throws OSSException, ClientException {
+        Map<Integer, byte[]> parts = getMultipartUpload(request.getUploadId());
+        byte[] content = getContentUnchecked(request.getSourceKey());
+        checkETag(request.getSourceKey(), content, request.getMatchingETagConstraints());
+        int start = request.getBeginIndex().intValue();
+        byte[] part = Arrays.copyOfRange(content, start, start + request.getPartSize().intValue());
+        parts.put(request.getPartNumber(), part);
+        UploadPartCopyResult result = new UploadPartCopyResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(partETag(part));
+        return result;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) throws OSSException, ClientException {
+        byte[] content = getContentUnchecked(key);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(getUserMetadata(blobs.get(key)));
+        metadata.setHeader("ETag", eTag(content));
+        metadata.setContentLength(content.length);
+        return metadata;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+        throws OSSException, ClientException {
+        Map<Integer, byte[]> parts = getMultipartUpload(request.getUploadId());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (PartETag partETag : request.getPartETags()) {
+            byte[] part = parts.get(partETag.getPartNumber());
+            outputStream.write(part, 0, part.length);
+        }
+        OSSObject ossObject = new OSSObject();
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(outputStream.size());
+        Map<String, String> userMetadata = multipartUserMetadata.remove(request.getUploadId());
+        if (userMetadata != null) {
+            metadata.setUserMetadata(userMetadata);
+        }
+        ossObject.setObjectContent(new ByteArrayInputStream(outputStream.toByteArray()));
+        ossObject.setObjectMetadata(metadata);
+        synchronized (this) {
+            checkOverwrite(request.getKey(), request.getHeaders());
+            blobs.put(request.getKey(), ossObject);
+        }
+        multipartUploads.remove(request.getUploadId());
+        multipartUploadInfos.remove(request.getUploadId());
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public PartListing listParts(ListPartsRequest request) throws OSSException, ClientException {
+        Map<Integer, byte[]> parts = getMultipartUpload(request.getUploadId());
+        int marker = request.getPartNumberMarker() == null ? 0 : request.getPartNumberMarker();
+        int maxParts = request.getMaxParts() == null ? 1000 : request.getMaxParts();
+        PartListing listing = new PartListing();
+        for (Map.Entry<Integer, byte[]> part : new TreeMap<>(parts).tailMap(marker + 1).entrySet()) {
+            if (listing.getParts().size() == maxParts) {
+                listing.setTruncated(true);
+                break;
+            }
+            PartSummary summary = new PartSummary();
+            summary.setPartNumber(part.getKey());
+            summary.setSize(part.getValue().length);
+            summary.setETag(partETag(part.getValue()));
+            listing.addPart(summary);
+            listing.setNextPartNumberMarker(part.getKey());
+        }
+        return listing;
+    }
+
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+        throws OSSException, ClientException {
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        MultipartUploadListing listing = new MultipartUploadListing();
+        for (MultipartUpload upload : multipartUploadInfos.values()) {
+            if (upload.getKey().startsWith(prefix)) {
+                listing.addMultipartUpload(upload);
+            }
+        }
+        return listing;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) throws OSSException, ClientException {
+        getMultipartUpload(request.getUploadId());
+        multipartUploads.remove(request.getUploadId());
+        multipartUploadInfos.remove(request.getUploadId());
+        multipartUserMetadata.remove(request.getUploadId());
+    }
+
+    private Map<Integer, byte[]> getMultipartUpload(String uploadId) {
+        Map<Integer, byte[]> parts = multipartUploads.get(uploadId);
+        if (parts == null) {
+            throw new OSSException("upload [" + uploadId + "] does not exist", OSSErrorCode.NO_SUCH_UPLOAD,
+                null, null, null, null, null);
+        }
+        return parts;
+    }
+
     @Override
     public void shutdown() {
         blobs.clear();
     }
 
     @Override
-    public void refreshStsOssClient() throws CreateStsOssClientException {
-
+    public StsCredentialsRefresher getStsCredentialsRefresher() {
+        return null;
     }
 
     @Override
@@ -0,0 +1,142 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.aliyun.oss.blobstore.OssHttpFixture.Fault;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.aliyun.oss.service.OssService;
+import org.elasticsearch.aliyun.oss.service.OssServiceImpl;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests the blob store with the OSS client over HTTP, against an {@link OssHttpFixture} which slows down
+ * and fails requests.
+ */
+public class OssBlobStoreHttpTest extends ESTestCase {
+
+    private OssHttpFixture fixture;
+    private OssService client;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        fixture = new OssHttpFixture();
+        client = new OssServiceImpl(new RepositoryMetaData("test", "oss", fixture.clientSettings().build()));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        client.shutdown();
+        fixture.close();
+        super.tearDown();
+    }
+
+    private OssBlobStore newStore(OssStats stats) {
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_COPY_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        return new OssBlobStore("fixture", client, settings, stats);
+    }
+
+    public void testWriteReadListAndDelete() throws IOException {
+        try (OssBlobStore store = newStore(new OssStats())) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("indices"));
+            int count = randomIntBetween(1, 10);
+            byte[][] data = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                data[i] = randomByteArrayOfLength(randomIntBetween(0, 1024));
+                container.writeBlob("blob-" + i, new ByteArrayInputStream(data[i]), data[i].length, true);
+            }
+            expectThrows(IOException.class,
+                () -> container.writeBlob("blob-0", new ByteArrayInputStream(data[0]), data[0].length, true));
+            assertEquals(count, container.listBlobsByPrefix("blob-").size());
+            for (int i = 0; i < count; i++) {
+                assertTrue(container.blobExists("blob-" + i));
+                assertEquals(data[i].length, container.listBlobs().get("blob-" + i).length());
+                assertArrayEquals(data[i], readBlob(container, "blob-" + i));
+            }
+            store.delete(new BlobPath().add("indices"));
+            assertTrue(container.listBlobs().isEmpty());
+        }
+    }
+
+    public void testMultipartUploadAndCopy() throws IOException {
+        try (OssBlobStore store = newStore(new OssStats())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(101 * 1024, 512 * 1024));
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, true);
+            assertTrue(fixture.uploads.isEmpty());
+            assertArrayEquals(data, readBlob(container, "large"));
+
+            store.move("large", "moved");
+            assertFalse(container.blobExists("large"));
+            assertArrayEquals(data, readBlob(container, "moved"));
+            assertTrue(fixture.uploads.isEmpty());
+        }
+    }
+
+    public void testThrottledRequestsRetried() throws IOException {
+        OssStats stats = new OssStats();
+        try (OssBlobStore store = newStore(stats)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+            fixture.failNextRequests(Fault.THROTTLE, randomIntBetween(1, 2));
+            container.writeBlob("throttled", new ByteArrayInputStream(data), data.length, true);
+            assertArrayEquals(data, readBlob(container, "throttled"));
+            // the OSS client retries server errors on its own too, so the store may not see all of them
+            assertTrue(fixture.getInjectedFaults(Fault.THROTTLE) > 0);
+        }
+    }
+
+    public void testResetPartUploadRetried() throws IOException {
+        try (OssBlobStore store = newStore(new OssStats())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(201 * 1024, 400 * 1024));
+            fixture.setFaultyRequests(request -> request.getRequestUrl().queryParameter("partNumber") != null);
+            fixture.failNextRequests(Fault.RESET, 1);
+            container.writeBlob("reset", new ByteArrayInputStream(data), data.length, true);
+            assertEquals(1, fixture.getInjectedFaults(Fault.RESET));
+            assertArrayEquals(data, readBlob(container, "reset"));
+            assertTrue(fixture.uploads.isEmpty());
+        }
+    }
+
+    public void testLatencyAndBandwidthSlowDownRequests() throws IOException {
+        try (OssBlobStore store = newStore(new OssStats())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(20 * 1024);
+            container.writeBlob("slow", new ByteArrayInputStream(data), data.length, true);
+
+            fixture.setLatency(200, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            assertTrue(container.blobExists("slow"));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+
+            fixture.setLatency(0, TimeUnit.MILLISECONDS);
+            fixture.setBandwidth(40 * 1024);
+            start = System.nanoTime();
+            assertArrayEquals(data, readBlob(container, "slow"));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+        }
+    }
+
+    private static byte[] readBlob(BlobContainer container, String blobName) throws IOException {
+        try (InputStream stream = container.readBlob(blobName)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Streams.copy(stream, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobMetaData;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests blobs transferred as retried and resumed multipart uploads, concurrent range downloads, paged listings and bulk deletes,
+ * compressed shard data, and the stats recorded for them.
+ */
+public class OssBlobStoreTransferTest extends ESTestCase {
+
+    public void testWriteLargeBlobInParts() throws IOException {
+        String bucket = randomAlphaOfLength(randomIntBetween(1, 10)).toLowerCase(Locale.ROOT);
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY.getKey(), randomIntBetween(1, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore(bucket, client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(101 * 1024, 1024 * 1024));
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, true);
+            assertTrue(client.multipartUploads.isEmpty());
+            try (InputStream stream = container.readBlob("large")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+
+    public void testUploadAbortedOnShortStream() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(150 * 1024);
+            expectThrows(IOException.class,
+                () -> container.writeBlob("short", new ByteArrayInputStream(data), data.length + 1024, true));
+            assertTrue(client.multipartUploads.isEmpty());
+            assertFalse(container.blobExists("short"));
+        }
+    }
+
+    public void testMultipartUploadForbidsOverwrite() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(101 * 1024, 512 * 1024));
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, true);
+            expectThrows(FileAlreadyExistsException.class,
+                () -> container.writeBlob("large", new ByteArrayInputStream(data), data.length, true));
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, false);
+            assertTrue(client.multipartUploads.isEmpty());
+        }
+    }
+
+    public void testFailedPartsRetried() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY.getKey(), randomIntBetween(1, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(201 * 1024, 512 * 1024));
+            client.failedPartUploads.set(2);
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, true);
+            assertEquals(2, store.getStats().getRetries());
+            assertTrue(client.multipartUploads.isEmpty());
+            try (InputStream stream = container.readBlob("large")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+
+    public void testFailedUploadResumedWithMissingParts() throws IOException {
+        final AtomicBoolean failThirdPart = new AtomicBoolean(true);
+        final AtomicInteger uploadedParts = new AtomicInteger();
+        MockOssService client = new MockOssService() {
+            @Override
+            public UploadPartResult uploadPart(UploadPartRequest request) {
+                if (request.getPartNumber() == 3 && failThirdPart.get()) {
+                    throw new ClientException("connection reset");
+                }
+                uploadedParts.incrementAndGet();
+                return super.uploadPart(request);
+            }
+        };
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY.getKey(), 1)
+            .put(OssClientSettings.MULTIPART_PART_MAX_RETRIES.getKey(), 0)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(450 * 1024);
+            expectThrows(ClientException.class,
+                () -> container.writeBlob("large", new ByteArrayInputStream(data), data.length, true));
+            assertEquals(1, client.multipartUploads.size());
+            assertEquals(2, uploadedParts.get());
+
+            failThirdPart.set(false);
+            container.writeBlob("large", new ByteArrayInputStream(data), data.length, true);
+            assertEquals(5, uploadedParts.get());
+            assertTrue(client.multipartUploads.isEmpty());
+            try (InputStream stream = container.readBlob("large")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+
+            // parts with a different content are uploaded again
+            failThirdPart.set(true);
+            expectThrows(ClientException.class,
+                () -> container.writeBlob("other", new ByteArrayInputStream(data), data.length, false));
+            failThirdPart.set(false);
+            byte[] otherData = randomByteArrayOfLength(450 * 1024);
+            container.writeBlob("other", new ByteArrayInputStream(otherData), otherData.length, false);
+            assertEquals(12, uploadedParts.get());
+            assertTrue(client.multipartUploads.isEmpty());
+        }
+    }
+
+    public void testStaleUploadsAborted() throws IOException {
+        MockOssService client = new MockOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client)) {
+            String stale = store.initiateMultipartUpload("repo/stale", false, null);
+            String recent = store.initiateMultipartUpload("repo/recent", false, null);
+            String outside = store.initiateMultipartUpload("other/stale", false, null);
+            Date dayAgo = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+            client.multipartUploadInfos.get(stale).setInitiated(dayAgo);
+            client.multipartUploadInfos.get(outside).setInitiated(dayAgo);
+            StaleUploadSweeper sweeper = new StaleUploadSweeper(store, "repo/", TimeUnit.HOURS.toMillis(1));
+            assertEquals(1, sweeper.sweep());
+            assertFalse(client.multipartUploads.containsKey(stale));
+            assertTrue(client.multipartUploads.containsKey(recent));
+            assertTrue(client.multipartUploads.containsKey(outside));
+            sweeper.close();
+        }
+    }
+
+    public void testReadLargeBlobInRanges() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), randomIntBetween(1, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(0, 1024 * 1024));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            try (InputStream stream = container.readBlob("blob")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+
+    public void testMoveBlob() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_COPY_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_COPY_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_UPLOAD_CONCURRENCY.getKey(), randomIntBetween(1, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(0, 1024 * 1024));
+            container.writeBlob("source", new ByteArrayInputStream(data), data.length, true);
+            store.move("source", "target");
+            assertFalse(container.blobExists("source"));
+            assertTrue(client.multipartUploads.isEmpty());
+            try (InputStream stream = container.readBlob("target")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+
+    public void testListDirectChildrenInPages() throws IOException {
+        MockOssService client = new MockOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("container"));
+            int blobs = randomIntBetween(1, 2500);
+            for (int i = 0; i < blobs; i++) {
+                container.writeBlob("blob-" + i, new ByteArrayInputStream(new byte[i % 7]), i % 7, true);
+            }
+            BlobContainer child = store.blobContainer(new BlobPath().add("container").add("child"));
+            child.writeBlob("blob-0", new ByteArrayInputStream(new byte[1]), 1, true);
+            Map<String, BlobMetaData> listed = container.listBlobs();
+            assertEquals(blobs, listed.size());
+            for (int i = 0; i < blobs; i++) {
+                assertEquals(i % 7, listed.get("blob-" + i).length());
+            }
+            assertEquals(1, container.listBlobsByPrefix("blob-0").size());
+            assertEquals(1, child.listBlobs().size());
+        }
+    }
+
+    public void testDeletePathInBatches() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.DELETE_CONCURRENCY.getKey(), randomIntBetween(1, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobPath deleted = new BlobPath().add("deleted");
+            BlobContainer container = store.blobContainer(deleted);
+            int blobs = randomIntBetween(1, 2500);
+            for (int i = 0; i < blobs; i++) {
+                container.writeBlob("blob-" + i, new ByteArrayInputStream(new byte[1]), 1, true);
+            }
+            BlobContainer kept = store.blobContainer(new BlobPath().add("kept"));
+            kept.writeBlob("blob", new ByteArrayInputStream(new byte[1]), 1, true);
+            store.delete(deleted);
+            assertTrue(container.listBlobs().isEmpty());
+            assertTrue(kept.blobExists("blob"));
+        }
+    }
+
+    public void testUndeletedKeysOfBatchReported() throws IOException {
+        MockOssService client = new MockOssService() {
+            @Override
+            public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+                throws OSSException, ClientException {
+                // OSS failed to delete one of the keys, it is left out of the deleted keys of the response
+                List<String> keys = new ArrayList<>(deleteObjectsRequest.getKeys());
+                keys.remove("deleted/blob-3");
+                return super.deleteObjects(new DeleteObjectsRequest(deleteObjectsRequest.getBucketName())
+                    .withKeys(keys).withQuiet(deleteObjectsRequest.isQuiet()));
+            }
+        };
+        try (OssBlobStore store = new OssBlobStore("bucket", client)) {
+            BlobPath deleted = new BlobPath().add("deleted");
+            BlobContainer container = store.blobContainer(deleted);
+            for (int i = 0; i < 10; i++) {
+                container.writeBlob("blob-" + i, new ByteArrayInputStream(new byte[1]), 1, true);
+            }
+            IOException e = expectThrows(IOException.class, () -> store.delete(deleted));
+            assertEquals("failed to delete [1] of [10] blobs, including [deleted/blob-3]", e.getMessage());
+            assertEquals(Collections.singleton("blob-3"), container.listBlobs().keySet());
+        }
+    }
+
+    public void testThrottledBatchDeleteRetried() throws IOException {
+        MockOssService client = new MockOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client)) {
+            BlobPath deleted = new BlobPath().add("deleted");
+            BlobContainer container = store.blobContainer(deleted);
+            for (int i = 0; i < 10; i++) {
+                container.writeBlob("blob-" + i, new ByteArrayInputStream(new byte[1]), 1, true);
+            }
+            client.throttledRequests.set(2);
+            store.delete(deleted);
+            assertTrue(container.listBlobs().isEmpty());
+            assertEquals(2, store.getStats().getThrottled(OssStats.Operation.DELETE));
+            assertEquals(2, store.getStats().getRetries());
+        }
+    }
+
+    public void testStatsRecorded() throws IOException {
+        MockOssService client = new MockOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            try (InputStream stream = container.readBlob("blob")) {
+                Streams.copy(stream, new ByteArrayOutputStream());
+            }
+            expectThrows(NoSuchFileException.class, () -> container.readBlob("missing"));
+            OssStats stats = store.getStats();
+            assertEquals(1, stats.getCount(OssStats.Operation.PUT));
+            assertEquals(0, stats.getFailures(OssStats.Operation.PUT));
+            assertEquals(data.length, stats.getBytesUploaded());
+            assertEquals(2, stats.getCount(OssStats.Operation.GET));
+            assertEquals(1, stats.getFailures(OssStats.Operation.GET));
+            assertEquals(data.length, stats.getBytesDownloaded());
+        }
+    }
+
+    public void testThrottledRequestsRetried() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024));
+            client.throttledRequests.set(2);
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            client.throttledRequests.set(1);
+            try (InputStream stream = container.readBlob("blob")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+            assertEquals(3, store.getStats().getRetries());
+
+            // a small stream that cannot be reset is retried from its upload buffer
+            client.throttledRequests.set(1);
+            container.writeBlob("small", notMarkable(data), data.length, true);
+            assertEquals(4, store.getStats().getRetries());
+
+            // a stream larger than the upload buffers that cannot be reset is not retried
+            byte[] large = randomByteArrayOfLength(randomIntBetween(101 * 1024, 200 * 1024));
+            client.throttledRequests.set(1);
+            expectThrows(OSSException.class,
+                () -> container.writeBlob("large", notMarkable(large), large.length, true));
+            assertEquals(4, store.getStats().getRetries());
+            assertEquals(5, store.getStats().getThrottled(OssStats.Operation.PUT)
+                + store.getStats().getThrottled(OssStats.Operation.GET));
+        }
+    }
+
+    public void testShardDataCompressed() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.COMPRESS_DATA.getKey(), true)
+            .put(OssClientSettings.COMPRESSION_CONCURRENCY.getKey(), randomIntBetween(1, 4))
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath().add("indices"));
+            for (int size : new int[] {4096, 50 * 1024, randomIntBetween(1024 * 1024, 4 * 1024 * 1024)}) {
+                byte[] data = compressibleBytes(size);
+                String blobName = "__" + size;
+                container.writeBlob(blobName, new ByteArrayInputStream(data), data.length, true);
+                assertTrue(client.multipartUploads.isEmpty());
+                ObjectMetadata metadata = client.getObjectMetadata("bucket", "indices/" + blobName);
+                assertTrue(OssBlobStore.isCompressed(metadata));
+                assertTrue(metadata.getContentLength() < data.length / 2);
+                assertArrayEquals(data, readFully(container, blobName));
+            }
+        }
+    }
+
+    public void testIncompressibleAndMetadataBlobsStoredRaw() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.COMPRESS_DATA.getKey(), true)
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] random = randomByteArrayOfLength(randomIntBetween(1, 2 * 1024 * 1024));
+            container.writeBlob("__random", new ByteArrayInputStream(random), random.length, true);
+            assertFalse(OssBlobStore.isCompressed(client.getObjectMetadata("bucket", "__random")));
+            assertEquals(random.length, client.getObjectMetadata("bucket", "__random").getContentLength());
+            assertArrayEquals(random, readFully(container, "__random"));
+
+            byte[] metadata = compressibleBytes(200 * 1024);
+            container.writeBlob("snap-1.dat", new ByteArrayInputStream(metadata), metadata.length, true);
+            assertFalse(OssBlobStore.isCompressed(client.getObjectMetadata("bucket", "snap-1.dat")));
+            assertArrayEquals(metadata, readFully(container, "snap-1.dat"));
+        }
+    }
+
+    public void testCompressedWriteFailsOnShortStream() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.COMPRESS_DATA.getKey(), true)
+            .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = compressibleBytes(3 * 1024 * 1024);
+            expectThrows(IOException.class,
+                () -> container.writeBlob("__short", new ByteArrayInputStream(data), data.length + 1024, true));
+            assertTrue(client.multipartUploads.isEmpty());
+            assertFalse(container.blobExists("__short"));
+        }
+    }
+
+    private static InputStream notMarkable(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    private static byte[] compressibleBytes(int length) {
+        byte[] words = randomAlphaOfLength(512).getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = words[(i * 7 + i / 4096) % words.length];
+        }
+        return data;
+    }
+
+    private static byte[] readFully(BlobContainer container, String blobName) throws IOException {
+        try (InputStream stream = container.readBlob(blobName)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Streams.copy(stream, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+
+    public void testTotalLengthFromContentRange() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        assertEquals(-1, OssBlobStore.getTotalLength(metadata));
+        metadata.setContentLength(100);
+        assertEquals(100, OssBlobStore.getTotalLength(metadata));
+        metadata.setHeader("content-range", "bytes 0-99/12345");
+        assertEquals(12345, OssBlobStore.getTotalLength(metadata));
+    }
+
+    public void testReadBlobSmallerThanFirstRange() throws IOException {
+        MockOssService client = new MockOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), randomIntBetween(2, 8))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 100 * 1024 - 1));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            // the first range ends past the end of the blob, OSS answers with the whole blob and no Content-Range
+            ObjectMetadata metadata = client.getObject(
+                new GetObjectRequest("bucket", "blob").withRange(0, 100 * 1024 - 1)).getObjectMetadata();
+            assertNull(metadata.getRawMetadata().get("Content-Range"));
+            assertEquals(data.length, OssBlobStore.getTotalLength(metadata));
+            assertArrayEquals(data, readFully(container, "blob"));
+        }
+    }
+}
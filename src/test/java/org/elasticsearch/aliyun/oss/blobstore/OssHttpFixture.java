@@ -0,0 +1,604 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Local stand-in for the OSS HTTP API of one bucket, served by a {@link MockWebServer}. Clients configured
+ * with {@link #clientSettings()} address it as a CNAME of the bucket, so requests come as {@code /key?params}.
+ * It implements the operations of the plugin, without checking signatures: the bucket ACL check, object put,
+ * get with ranges, head, delete, copy, listing, batch delete and multipart uploads and copies.
+ * <p>
+ * Requests can be slowed down with a fixed latency and a bandwidth cap, and failed like a congested OSS
+ * would, see {@link Fault}.
+ */
+public class OssHttpFixture implements Closeable {
+
+    /**
+     * Failures the fixture can inject
+     */
+    public enum Fault {
+        /**
+         * The request is rejected with {@code 503 SlowDown}
+         */
+        THROTTLE,
+        /**
+         * The connection is closed once the request is read, without any response
+         */
+        RESET,
+        /**
+         * The connection is closed halfway through the response body
+         */
+        RESET_DURING_BODY
+    }
+
+    private static final DateTimeFormatter LAST_MODIFIED_HEADER =
+        DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter LAST_MODIFIED_XML =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT).withZone(ZoneOffset.UTC);
+    private static final String USER_METADATA_PREFIX = "x-oss-meta-";
+    private static final String COPY_SOURCE_HEADER = "x-oss-copy-source";
+    private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>");
+    private static final Pattern PART = Pattern.compile("<PartNumber>(\\d+)</PartNumber>\\s*<ETag>(.*?)</ETag>");
+
+    private final MockWebServer server = new MockWebServer();
+    /**
+     * Objects of the bucket by key, sorted like OSS lists them
+     */
+    protected final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    /**
+     * Multipart uploads in progress by upload id
+     */
+    protected final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile Predicate<RecordedRequest> faultyRequests = request -> true;
+    private final Map<Fault, AtomicInteger> pendingFaults = new EnumMap<>(Fault.class);
+    private final Map<Fault, Double> faultRates = new ConcurrentHashMap<>();
+    private final Map<Fault, AtomicInteger> injectedFaults = new EnumMap<>(Fault.class);
+
+    public OssHttpFixture() throws IOException {
+        for (Fault fault : Fault.values()) {
+            pendingFaults.put(fault, new AtomicInteger());
+            injectedFaults.put(fault, new AtomicInteger());
+        }
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return injectFaults(request);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the endpoint of the fixture, like {@code http://127.0.0.1:port}
+     */
+    public String endpoint() {
+        return "http://" + server.getHostName() + ":" + server.getPort();
+    }
+
+    /**
+     * @return repository settings of an OSS client sending its requests to this fixture
+     */
+    public Settings.Builder clientSettings() {
+        return Settings.builder()
+            .put(OssClientSettings.ENDPOINT.getKey(), endpoint())
+            .put(OssClientSettings.SUPPORT_CNAME.getKey(), true)
+            .put(OssClientSettings.ACCESS_KEY_ID.getKey(), "fixture")
+            .put(OssClientSettings.SECRET_ACCESS_KEY.getKey(), "fixture");
+    }
+
+    /**
+     * @return number of requests the fixture received
+     */
+    public int getRequestCount() {
+        return server.getRequestCount();
+    }
+
+    /**
+     * Delays the headers of every response
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyMillis = unit.toMillis(latency);
+    }
+
+    /**
+     * Caps the rate at which each request and response body is transferred, 0 removes the cap
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Fails the next requests that faults apply to
+     *
+     * @param fault the failure
+     * @param count number of requests to fail
+     */
+    public void failNextRequests(Fault fault, int count) {
+        pendingFaults.get(fault).addAndGet(count);
+    }
+
+    /**
+     * Fails a random share of the requests that faults apply to
+     *
+     * @param fault the failure
+     * @param rate  probability that a request fails, 0 to stop failing requests
+     */
+    public void setFaultRate(Fault fault, double rate) {
+        faultRates.put(fault, rate);
+    }
+
+    /**
+     * Restricts the injected faults to the matching requests, all requests by default
+     */
+    public void setFaultyRequests(Predicate<RecordedRequest> faultyRequests) {
+        this.faultyRequests = faultyRequests;
+    }
+
+    /**
+     * @return number of requests the fault was injected in
+     */
+    public int getInjectedFaults(Fault fault) {
+        return injectedFaults.get(fault).get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    private MockResponse injectFaults(RecordedRequest request) {
+        Fault fault = null;
+        if (faultyRequests.test(request)) {
+            for (Fault candidate : Fault.values()) {
+                if (pendingFaults.get(candidate).getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                    || ThreadLocalRandom.current().nextDouble() < faultRates.getOrDefault(candidate, 0.0)) {
+                    fault = candidate;
+                    injectedFaults.get(fault).incrementAndGet();
+                    break;
+                }
+            }
+        }
+        final MockResponse response;
+        if (fault == Fault.RESET) {
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+        } else if (fault == Fault.THROTTLE) {
+            response = error(503, "SlowDown", "Please reduce your request rate.");
+        } else {
+            response = handle(request);
+            if (fault == Fault.RESET_DURING_BODY) {
+                response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+        }
+        if (latencyMillis > 0) {
+            response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+        if (bytesPerSecond > 0) {
+            // throttled in steps of 1/10th of a second so that small bodies are slowed down too
+            response.throttleBody(Math.max(1, bytesPerSecond / 10), 100, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Answers a request
+     */
+    protected MockResponse handle(RecordedRequest request) {
+        final HttpUrl url = request.getRequestUrl();
+        final String key = String.join("/", url.pathSegments());
+        final String method = request.getMethod();
+        final String uploadId = url.queryParameter("uploadId");
+        if (key.isEmpty()) {
+            if ("GET".equals(method) && url.queryParameterNames().contains("acl")) {
+                return xml(200, "<AccessControlPolicy><Owner><ID>fixture</ID><DisplayName>fixture</DisplayName>"
+                    + "</Owner><AccessControlList><Grant>private</Grant></AccessControlList></AccessControlPolicy>");
+            } else if ("GET".equals(method) && url.queryParameterNames().contains("uploads")) {
+                return listMultipartUploads(url);
+            } else if ("GET".equals(method)) {
+                return listObjects(url);
+            } else if ("POST".equals(method) && url.queryParameterNames().contains("delete")) {
+                return deleteObjects(request);
+            }
+        } else if (uploadId != null) {
+            Upload upload = uploads.get(uploadId);
+            if (upload == null || !upload.key.equals(key)) {
+                return error(404, "NoSuchUpload", "upload [" + uploadId + "] does not exist");
+            } else if ("PUT".equals(method) && request.getHeader(COPY_SOURCE_HEADER) != null) {
+                return uploadPartCopy(upload, request);
+            } else if ("PUT".equals(method)) {
+                byte[] part = request.getBody().readByteArray();
+                upload.parts.put(Integer.parseInt(url.queryParameter("partNumber")), part);
+                return new MockResponse().setResponseCode(200).addHeader("ETag", quote(md5(part)));
+            } else if ("POST".equals(method)) {
+                return completeMultipartUpload(uploadId, upload, request);
+            } else if ("GET".equals(method)) {
+                return listParts(uploadId, upload);
+            } else if ("DELETE".equals(method)) {
+                uploads.remove(uploadId);
+                return new MockResponse().setResponseCode(204);
+            }
+        } else if ("POST".equals(method) && url.queryParameterNames().contains("uploads")) {
+            String newUploadId = UUID.randomUUID().toString();
+            uploads.put(newUploadId, new Upload(key, userMetadata(request)));
+            return xml(200, "<InitiateMultipartUploadResult><Bucket>fixture</Bucket><Key>" + escape(key)
+                + "</Key><UploadId>" + newUploadId + "</UploadId></InitiateMultipartUploadResult>");
+        } else if ("PUT".equals(method) && request.getHeader(COPY_SOURCE_HEADER) != null) {
+            return copyObject(key, request);
+        } else if ("PUT".equals(method)) {
+            return putObject(key, request);
+        } else if ("GET".equals(method)) {
+            return getObject(key, request);
+        } else if ("HEAD".equals(method)) {
+            return headObject(key);
+        } else if ("DELETE".equals(method)) {
+            objects.remove(key);
+            return new MockResponse().setResponseCode(204);
+        }
+        return error(501, "NotImplemented", method + " " + url.encodedPath() + " is not implemented");
+    }
+
+    private MockResponse putObject(String key, RecordedRequest request) {
+        if (isOverwriteForbidden(key, request)) {
+            return error(409, "FileAlreadyExists", "[" + key + "] already exists");
+        }
+        StoredObject object = new StoredObject(request.getBody().readByteArray(), userMetadata(request));
+        objects.put(key, object);
+        return new MockResponse().setResponseCode(200).addHeader("ETag", quote(object.eTag));
+    }
+
+    private MockResponse copyObject(String key, RecordedRequest request) {
+        StoredObject source = objects.get(copySourceKey(request));
+        if (source == null) {
+            return error(404, "NoSuchKey", "[" + copySourceKey(request) + "] does not exist");
+        }
+        objects.put(key, source);
+        return xml(200, "<CopyObjectResult><LastModified>" + LAST_MODIFIED_XML.format(source.lastModified)
+            + "</LastModified><ETag>" + quote(source.eTag) + "</ETag></CopyObjectResult>");
+    }
+
+    private MockResponse getObject(String key, RecordedRequest request) {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            return error(404, "NoSuchKey", "[" + key + "] does not exist");
+        }
+        if (!matchesETag(object, request.getHeader("If-Match"))) {
+            return error(412, "PreconditionFailed", "ETag of [" + key + "] does not match");
+        }
+        byte[] content = object.content;
+        MockResponse response = object.headers(new MockResponse().setResponseCode(200));
+        long[] range = parseRange(request.getHeader("Range"), content.length);
+        // like OSS, an invalid range or one ending past the end of the object returns the whole object
+        if (range != null) {
+            response.setResponseCode(206);
+            response.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + content.length);
+            content = Arrays.copyOfRange(content, (int)range[0], (int)range[1] + 1);
+        }
+        return response.setBody(new Buffer().write(content));
+    }
+
+    private MockResponse headObject(String key) {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        return object.headers(new MockResponse().setResponseCode(200))
+            .setHeader("Content-Length", object.content.length);
+    }
+
+    private MockResponse deleteObjects(RecordedRequest request) {
+        String body = request.getBody().readUtf8();
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+        StringBuilder deleted = new StringBuilder("<DeleteResult>");
+        Matcher matcher = KEY.matcher(body);
+        while (matcher.find()) {
+            String key = unescape(matcher.group(1));
+            objects.remove(key);
+            if (!quiet) {
+                deleted.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        return xml(200, deleted.append("</DeleteResult>").toString());
+    }
+
+    private MockResponse listObjects(HttpUrl url) {
+        String prefix = valueOrEmpty(url.queryParameter("prefix"));
+        String marker = valueOrEmpty(url.queryParameter("marker"));
+        String delimiter = valueOrEmpty(url.queryParameter("delimiter"));
+        String maxKeysParameter = url.queryParameter("max-keys");
+        int maxKeys = maxKeysParameter == null ? 100 : Integer.parseInt(maxKeysParameter);
+
+        StringBuilder contents = new StringBuilder();
+        TreeSet<String> commonPrefixes = new TreeSet<>();
+        String lastKey = null;
+        boolean truncated = false;
+        int count = 0;
+        for (Map.Entry<String, StoredObject> entry : objects.tailMap(marker, false).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                if (key.compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            int delimiterIndex = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+            String commonPrefix = delimiterIndex < 0 ? null : key.substring(0, delimiterIndex + delimiter.length());
+            if (commonPrefix != null && commonPrefixes.contains(commonPrefix)) {
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            count++;
+            lastKey = key;
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+            } else {
+                StoredObject object = entry.getValue();
+                contents.append("<Contents><Key>").append(escape(key)).append("</Key><LastModified>")
+                    .append(LAST_MODIFIED_XML.format(object.lastModified)).append("</LastModified><ETag>")
+                    .append(quote(object.eTag)).append("</ETag><Type>Normal</Type><Size>")
+                    .append(object.content.length).append("</Size><StorageClass>Standard</StorageClass>")
+                    .append("<Owner><ID>fixture</ID><DisplayName>fixture</DisplayName></Owner></Contents>");
+            }
+        }
+        StringBuilder body = new StringBuilder("<ListBucketResult><Name>fixture</Name><Prefix>")
+            .append(escape(prefix)).append("</Prefix><Marker>").append(escape(marker)).append("</Marker><MaxKeys>")
+            .append(maxKeys).append("</MaxKeys><Delimiter>").append(escape(delimiter)).append("</Delimiter>")
+            .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            body.append("<NextMarker>").append(escape(lastKey)).append("</NextMarker>");
+        }
+        body.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            body.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>");
+        }
+        return xml(200, body.append("</ListBucketResult>").toString());
+    }
+
+    private MockResponse uploadPartCopy(Upload upload, RecordedRequest request) {
+        StoredObject source = objects.get(copySourceKey(request));
+        if (source == null) {
+            return error(404, "NoSuchKey", "[" + copySourceKey(request) + "] does not exist");
+        }
+        if (!matchesETag(source, request.getHeader("x-oss-copy-source-if-match"))) {
+            return error(412, "PreconditionFailed", "ETag of [" + copySourceKey(request) + "] does not match");
+        }
+        long[] range = parseRange(request.getHeader("x-oss-copy-source-range"), source.content.length);
+        byte[] part = range == null ? source.content
+            : Arrays.copyOfRange(source.content, (int)range[0], (int)range[1] + 1);
+        upload.parts.put(Integer.parseInt(request.getRequestUrl().queryParameter("partNumber")), part);
+        return xml(200, "<CopyPartResult><LastModified>" + LAST_MODIFIED_XML.format(Instant.now())
+            + "</LastModified><ETag>" + quote(md5(part)) + "</ETag></CopyPartResult>");
+    }
+
+    private MockResponse completeMultipartUpload(String uploadId, Upload upload, RecordedRequest request) {
+        if (isOverwriteForbidden(upload.key, request)) {
+            return error(409, "FileAlreadyExists", "[" + upload.key + "] already exists");
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        StringBuilder partETags = new StringBuilder();
+        int partCount = 0;
+        Matcher matcher = PART.matcher(request.getBody().readUtf8());
+        while (matcher.find()) {
+            byte[] part = upload.parts.get(Integer.parseInt(matcher.group(1)));
+            String eTag = unquote(unescape(matcher.group(2)));
+            if (part == null || !md5(part).equalsIgnoreCase(eTag)) {
+                return error(400, "InvalidPart", "part [" + matcher.group(1) + "] was not uploaded");
+            }
+            content.write(part, 0, part.length);
+            partETags.append(eTag);
+            partCount++;
+        }
+        // like OSS, the ETag of a multipart object is not the digest of its content
+        String eTag = md5(partETags.toString().getBytes(StandardCharsets.UTF_8)) + "-" + partCount;
+        StoredObject object = new StoredObject(content.toByteArray(), upload.userMetadata, eTag);
+        objects.put(upload.key, object);
+        uploads.remove(uploadId);
+        return xml(200, "<CompleteMultipartUploadResult><Location>" + endpoint() + "/" + escape(upload.key)
+            + "</Location><Bucket>fixture</Bucket><Key>" + escape(upload.key) + "</Key><ETag>" + quote(eTag)
+            + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private MockResponse listParts(String uploadId, Upload upload) {
+        StringBuilder body = new StringBuilder("<ListPartsResult><Bucket>fixture</Bucket><Key>")
+            .append(escape(upload.key)).append("</Key><UploadId>").append(uploadId)
+            .append("</UploadId><PartNumberMarker>0</PartNumberMarker><NextPartNumberMarker>")
+            .append(upload.parts.isEmpty() ? 0 : upload.parts.lastKey())
+            .append("</NextPartNumberMarker><MaxParts>1000</MaxParts><IsTruncated>false</IsTruncated>");
+        for (Map.Entry<Integer, byte[]> part : upload.parts.entrySet()) {
+            body.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber><LastModified>")
+                .append(LAST_MODIFIED_XML.format(upload.initiated)).append("</LastModified><ETag>")
+                .append(quote(md5(part.getValue()))).append("</ETag><Size>").append(part.getValue().length)
+                .append("</Size></Part>");
+        }
+        return xml(200, body.append("</ListPartsResult>").toString());
+    }
+
+    private MockResponse listMultipartUploads(HttpUrl url) {
+        String prefix = valueOrEmpty(url.queryParameter("prefix"));
+        StringBuilder body = new StringBuilder("<ListMultipartUploadsResult><Bucket>fixture</Bucket>")
+            .append("<KeyMarker></KeyMarker><UploadIdMarker></UploadIdMarker><NextKeyMarker></NextKeyMarker>")
+            .append("<NextUploadIdMarker></NextUploadIdMarker><Delimiter></Delimiter><Prefix>").append(escape(prefix))
+            .append("</Prefix><MaxUploads>1000</MaxUploads><IsTruncated>false</IsTruncated>");
+        for (Map.Entry<String, Upload> upload : uploads.entrySet()) {
+            if (upload.getValue().key.startsWith(prefix)) {
+                body.append("<Upload><Key>").append(escape(upload.getValue().key)).append("</Key><UploadId>")
+                    .append(upload.getKey()).append("</UploadId><StorageClass>Standard</StorageClass><Initiated>")
+                    .append(LAST_MODIFIED_XML.format(upload.getValue().initiated)).append("</Initiated></Upload>");
+            }
+        }
+        return xml(200, body.append("</ListMultipartUploadsResult>").toString());
+    }
+
+    private boolean isOverwriteForbidden(String key, RecordedRequest request) {
+        return Boolean.parseBoolean(request.getHeader(OssBlobStore.FORBID_OVERWRITE_HEADER))
+            && objects.containsKey(key);
+    }
+
+    private static Map<String, String> userMetadata(RecordedRequest request) {
+        Map<String, String> userMetadata = new HashMap<>();
+        for (String name : request.getHeaders().names()) {
+            if (name.toLowerCase(Locale.ROOT).startsWith(USER_METADATA_PREFIX)) {
+                userMetadata.put(name.substring(USER_METADATA_PREFIX.length()).toLowerCase(Locale.ROOT),
+                    request.getHeader(name));
+            }
+        }
+        return userMetadata;
+    }
+
+    /**
+     * Returns the key of the source of a copy, sent as {@code /bucket/key}
+     */
+    private static String copySourceKey(RecordedRequest request) {
+        String source = request.getHeader(COPY_SOURCE_HEADER);
+        try {
+            return URLDecoder.decode(source.substring(source.indexOf('/', 1) + 1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean matchesETag(StoredObject object, String matchingETag) {
+        return matchingETag == null || unquote(matchingETag).equalsIgnoreCase(object.eTag);
+    }
+
+    /**
+     * Parses a {@code bytes=start-end} range
+     *
+     * @return the first and last byte of the range, or null if the range is missing, invalid or ends past the
+     * end of the object
+     */
+    private static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=")) {
+            return null;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-", 2);
+        long start = bounds[0].isEmpty() ? -1 : Long.parseLong(bounds[0]);
+        long end = bounds[1].isEmpty() ? length - 1 : Long.parseLong(bounds[1]);
+        return start >= 0 && start <= end && end < length ? new long[] {start, end} : null;
+    }
+
+    /**
+     * Returns an OSS error response
+     */
+    protected static MockResponse error(int status, String code, String message) {
+        return xml(status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message><RequestId>"
+            + UUID.randomUUID() + "</RequestId><HostId>fixture</HostId></Error>");
+    }
+
+    protected static MockResponse xml(int status, String body) {
+        return new MockResponse().setResponseCode(status)
+            .addHeader("Content-Type", "application/xml")
+            .addHeader("x-oss-request-id", UUID.randomUUID().toString())
+            .setBody("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + body);
+    }
+
+    private static String md5(byte[] content) {
+        return MessageDigests.toHexString(MessageDigests.md5().digest(content)).toUpperCase(Locale.ROOT);
+    }
+
+    private static String quote(String eTag) {
+        return "\"" + eTag + "\"";
+    }
+
+    private static String unquote(String eTag) {
+        return eTag.replace("\"", "");
+    }
+
+    private static String valueOrEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    /**
+     * An object held by the fixture
+     */
+    protected static class StoredObject {
+        final byte[] content;
+        final Map<String, String> userMetadata;
+        final Instant lastModified = Instant.now();
+        final String eTag;
+
+        StoredObject(byte[] content, Map<String, String> userMetadata) {
+            this(content, userMetadata, md5(content));
+        }
+
+        StoredObject(byte[] content, Map<String, String> userMetadata, String eTag) {
+            this.content = content;
+            this.userMetadata = Collections.unmodifiableMap(userMetadata);
+            this.eTag = eTag;
+        }
+
+        MockResponse headers(MockResponse response) {
+            response.addHeader("ETag", quote(eTag))
+                .addHeader("Last-Modified", LAST_MODIFIED_HEADER.format(lastModified))
+                .addHeader("Content-Type", "application/octet-stream")
+                .addHeader("x-oss-request-id", UUID.randomUUID().toString());
+            for (Map.Entry<String, String> metadata : userMetadata.entrySet()) {
+                response.addHeader(USER_METADATA_PREFIX + metadata.getKey(), metadata.getValue());
+            }
+            return response;
+        }
+    }
+
+    /**
+     * A multipart upload in progress
+     */
+    protected static class Upload {
+        final String key;
+        final Map<String, String> userMetadata;
+        final Instant initiated = Instant.now();
+        final NavigableMap<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+
+        Upload(String key, Map<String, String> userMetadata) {
+            this.key = key;
+            this.userMetadata = userMetadata;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests blobs read ahead of their reader within a bounded, adaptive window.
+ */
+public class ReadAheadInputStreamTest extends ESTestCase {
+
+    /**
+     * Source counting the bytes read from it, waiting before each read to act like a slow network
+     */
+    private static class SlowInputStream extends FilterInputStream {
+        final AtomicLong bytesRead = new AtomicLong();
+        final long delayMillis;
+
+        SlowInputStream(byte[] data, long delayMillis) {
+            super(new ByteArrayInputStream(data));
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytesRead.addAndGet(read);
+            }
+            return read;
+        }
+    }
+
+    public void testContentReadInOrder() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            byte[] data = randomByteArrayOfLength(randomIntBetween(0, 1024 * 1024));
+            try (InputStream stream = new ReadAheadInputStream(new SlowInputStream(data, 0), executor, "blob",
+                randomIntBetween(1, 1024 * 1024))) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[randomIntBetween(1, 100 * 1024)];
+                while (true) {
+                    if (randomBoolean()) {
+                        int b = stream.read();
+                        if (b == -1) {
+                            break;
+                        }
+                        outputStream.write(b);
+                    } else {
+                        int read = stream.read(buffer, 0, buffer.length);
+                        if (read == -1) {
+                            break;
+                        }
+                        outputStream.write(buffer, 0, read);
+                    }
+                }
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testReadAheadBoundedByWindow() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            SlowInputStream source = new SlowInputStream(randomByteArrayOfLength(4 * 1024 * 1024), 0);
+            try (ReadAheadInputStream stream = new ReadAheadInputStream(source, executor, "blob",
+                ReadAheadInputStream.INITIAL_WINDOW * 4)) {
+                // the window is read ahead before the reader asks for a byte, and no further
+                assertBusy(() -> assertEquals(ReadAheadInputStream.INITIAL_WINDOW, source.bytesRead.get()));
+                assertEquals(ReadAheadInputStream.INITIAL_WINDOW, stream.available());
+                assertTrue(stream.read() != -1);
+                Thread.sleep(50);
+                assertEquals(ReadAheadInputStream.INITIAL_WINDOW, source.bytesRead.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testWindowGrowsForFastReader() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            long maxWindow = ReadAheadInputStream.INITIAL_WINDOW * 8;
+            SlowInputStream source = new SlowInputStream(randomByteArrayOfLength(2 * 1024 * 1024), 2);
+            try (ReadAheadInputStream stream = new ReadAheadInputStream(source, executor, "blob", maxWindow)) {
+                byte[] buffer = new byte[8192];
+                while (stream.read(buffer) != -1) {
+                    // a reader faster than the source keeps waiting for it
+                }
+                assertEquals(maxWindow, stream.getWindow());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testSourceFailureRethrown() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            InputStream source = new FilterInputStream(new ByteArrayInputStream(new byte[100 * 1024])) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    throw new IOException("connection reset");
+                }
+            };
+            try (InputStream stream = new ReadAheadInputStream(source, executor, "blob", 1024 * 1024)) {
+                IOException e = expectThrows(IOException.class, stream::read);
+                assertEquals("connection reset", e.getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testClosedStreamRejectsReads() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            InputStream stream = new ReadAheadInputStream(new SlowInputStream(new byte[1024], 0), executor, "blob",
+                1024 * 1024);
+            stream.close();
+            expectThrows(IOException.class, stream::read);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testBlobsReadAhead() throws IOException {
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.READ_AHEAD_SIZE.getKey(), randomIntBetween(0, 2048), ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 1, ByteSizeUnit.MB)
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", new MockOssService(), settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(1, 1024 * 1024));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+            try (InputStream stream = container.readBlob("blob")) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                Streams.copy(stream, outputStream);
+                assertArrayEquals(data, outputStream.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests downloads resumed from where their connection failed.
+ */
+public class ResumableInputStreamTest extends ESTestCase {
+
+    /**
+     * Client whose first responses fail after a number of bytes, like connections reset by the network
+     */
+    private static class ResettingOssService extends MockOssService {
+        final AtomicInteger responsesToReset = new AtomicInteger();
+        final List<String> ranges = new CopyOnWriteArrayList<>();
+        volatile int bytesBeforeReset;
+        volatile boolean truncate;
+
+        @Override
+        public OSSObject getObject(GetObjectRequest getObjectRequest)
+            throws OSSException, ClientException, IOException {
+            long[] range = getObjectRequest.getRange();
+            ranges.add(range == null ? "all" : range[0] + "-" + range[1]);
+            OSSObject object = super.getObject(getObjectRequest);
+            if (responsesToReset.getAndDecrement() > 0) {
+                object.setObjectContent(resetAfter(object.getObjectContent(), bytesBeforeReset, truncate));
+            }
+            return object;
+        }
+
+        private static InputStream resetAfter(InputStream content, int bytes, boolean truncate) {
+            return new FilterInputStream(content) {
+                int remaining = bytes;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining == 0) {
+                        if (truncate) {
+                            return -1;
+                        }
+                        throw new SocketException("Connection reset");
+                    }
+                    int read = super.read(b, off, Math.min(len, remaining));
+                    if (read > 0) {
+                        remaining -= read;
+                    }
+                    return read;
+                }
+            };
+        }
+    }
+
+    /**
+     * Client whose first response blocks on reads until it is closed, like a response aborted by its reader
+     */
+    private static class BlockingOssService extends ResettingOssService {
+        final CountDownLatch readStarted = new CountDownLatch(1);
+
+        @Override
+        public OSSObject getObject(GetObjectRequest getObjectRequest)
+            throws OSSException, ClientException, IOException {
+            OSSObject object = super.getObject(getObjectRequest);
+            if (ranges.size() == 1) {
+                object.setObjectContent(new FilterInputStream(object.getObjectContent()) {
+                    final CountDownLatch closed = new CountDownLatch(1);
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        readStarted.countDown();
+                        try {
+                            closed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new SocketException("Socket closed");
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        closed.countDown();
+                        super.close();
+                    }
+                });
+            }
+            return object;
+        }
+    }
+
+    private static Settings.Builder settings() {
+        return Settings.builder()
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), 1)
+            .put(OssClientSettings.READ_AHEAD_SIZE.getKey(), 0, ByteSizeUnit.BYTES);
+    }
+
+    private static byte[] read(BlobContainer container, String blobName) throws IOException {
+        try (InputStream stream = container.readBlob(blobName)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Streams.copy(stream, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+
+    public void testDownloadResumedAfterReset() throws IOException {
+        ResettingOssService client = new ResettingOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings().build())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(300 * 1024);
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            client.bytesBeforeReset = 100 * 1024;
+            client.truncate = randomBoolean();
+            client.responsesToReset.set(2);
+            assertArrayEquals(data, read(container, "blob"));
+            assertEquals(3, client.ranges.size());
+            assertEquals("all", client.ranges.get(0));
+            assertEquals(100 * 1024 + "-" + (data.length - 1), client.ranges.get(1));
+            assertEquals(200 * 1024 + "-" + (data.length - 1), client.ranges.get(2));
+            assertEquals(2, store.getStats().getRetries());
+        }
+    }
+
+    public void testResumesBounded() throws IOException {
+        ResettingOssService client = new ResettingOssService();
+        Settings settings = settings().put(OssClientSettings.DOWNLOAD_MAX_RETRIES.getKey(), 2).build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(10 * 1024);
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            client.bytesBeforeReset = 1024;
+            client.responsesToReset.set(Integer.MAX_VALUE);
+            SocketException e = expectThrows(SocketException.class, () -> read(container, "blob"));
+            assertEquals("Connection reset", e.getMessage());
+            assertEquals(3, client.ranges.size());
+        }
+    }
+
+    public void testChangedBlobNotResumed() throws IOException {
+        ResettingOssService client = new ResettingOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings().build())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(10 * 1024);
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            client.bytesBeforeReset = 1024;
+            client.responsesToReset.set(1);
+            try (InputStream stream = container.readBlob("blob")) {
+                assertEquals(1024, stream.read(new byte[2048]));
+                byte[] other = randomByteArrayOfLength(10 * 1024);
+                container.writeBlob("blob", new ByteArrayInputStream(other), other.length, false);
+                IOException e = expectThrows(IOException.class, () -> stream.read(new byte[2048]));
+                assertEquals("[blob] changed while it was read", e.getMessage());
+            }
+        }
+    }
+
+    public void testClosedDuringReadNotResumed() throws Exception {
+        BlockingOssService client = new BlockingOssService();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings().build())) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(10 * 1024);
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            InputStream stream = container.readBlob("blob");
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    stream.read(new byte[1024]);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            client.readStarted.await();
+            stream.close();
+            reader.join();
+            assertTrue(failure.get() instanceof SocketException);
+            assertEquals(1, client.ranges.size());
+            assertEquals(0, store.getStats().getRetries());
+        }
+    }
+
+    public void testBlobSmallerThanFirstRangeResumed() throws IOException {
+        ResettingOssService client = new ResettingOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), randomIntBetween(2, 4))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(2, 100 * 1024 - 1));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            // the first range ends past the end of the blob and is answered with the whole blob
+            client.bytesBeforeReset = randomIntBetween(1, data.length - 1);
+            client.truncate = randomBoolean();
+            client.responsesToReset.set(1);
+            assertArrayEquals(data, read(container, "blob"));
+            assertEquals(2, client.ranges.size());
+            assertEquals("0-" + (100 * 1024 - 1), client.ranges.get(0));
+            assertEquals(client.bytesBeforeReset + "-" + (data.length - 1), client.ranges.get(1));
+            assertEquals(1, store.getStats().getRetries());
+        }
+    }
+
+    public void testRangesOfParallelDownloadResumed() throws IOException {
+        ResettingOssService client = new ResettingOssService();
+        Settings settings = Settings.builder()
+            .put(OssClientSettings.DOWNLOAD_RANGE_SIZE.getKey(), 100, ByteSizeUnit.KB)
+            .put(OssClientSettings.DOWNLOAD_CONCURRENCY.getKey(), randomIntBetween(2, 4))
+            .build();
+        try (OssBlobStore store = new OssBlobStore("bucket", client, settings)) {
+            BlobContainer container = store.blobContainer(new BlobPath());
+            byte[] data = randomByteArrayOfLength(randomIntBetween(101 * 1024, 500 * 1024));
+            container.writeBlob("blob", new ByteArrayInputStream(data), data.length, true);
+
+            client.bytesBeforeReset = randomIntBetween(1, 100 * 1024 - 1);
+            client.truncate = randomBoolean();
+            client.responsesToReset.set(randomIntBetween(1, 3));
+            assertArrayEquals(data, read(container, "blob"));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.elasticsearch.aliyun.oss.blobstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.test.ESTestCase;
+
+public class UploadBufferPoolTest extends ESTestCase {
+
+    public void testBufferReadAgain() throws IOException {
+        UploadBufferPool pool = new UploadBufferPool(Long.MAX_VALUE, new OssStats());
+        byte[] data = randomByteArrayOfLength(randomIntBetween(0, 4 * UploadBufferPool.CHUNK_SIZE));
+        int maxLength = randomIntBetween(0, data.length + 10);
+        try (UploadBuffer buffer = pool.read(new ByteArrayInputStream(data), maxLength)) {
+            int length = Math.min(maxLength, data.length);
+            assertEquals(length, buffer.length());
+            byte[] expected = new byte[length];
+            System.arraycopy(data, 0, expected, 0, length);
+            assertArrayEquals(MessageDigests.md5().digest(expected), buffer.md5());
+            for (int i = 0; i < 2; i++) {
+                assertArrayEquals(expected, readFully(buffer.newInputStream()));
+            }
+
+            InputStream stream = buffer.newInputStream();
+            assertTrue(stream.markSupported());
+            stream.mark(length);
+            stream.skip(randomIntBetween(0, length));
+            stream.reset();
+            assertArrayEquals(expected, readFully(stream));
+        }
+    }
+
+    public void testChunksReused() throws IOException {
+        OssStats stats = new OssStats();
+        UploadBufferPool pool = new UploadBufferPool(2 * UploadBufferPool.CHUNK_SIZE, stats);
+        byte[] data = randomByteArrayOfLength(3 * UploadBufferPool.CHUNK_SIZE);
+        pool.read(new ByteArrayInputStream(data), data.length).close();
+        assertEquals(3 * UploadBufferPool.CHUNK_SIZE, stats.getUploadBufferAllocatedBytes());
+        assertEquals(2 * UploadBufferPool.CHUNK_SIZE, pool.getPooledBytes());
+        assertEquals(2 * UploadBufferPool.CHUNK_SIZE, stats.getUploadBufferPooledBytes());
+
+        UploadBuffer buffer = pool.read(new ByteArrayInputStream(data), UploadBufferPool.CHUNK_SIZE + 1);
+        assertEquals(UploadBufferPool.CHUNK_SIZE * 2, stats.getUploadBufferReusedBytes());
+        assertEquals(0, pool.getPooledBytes());
+        buffer.close();
+        buffer.close();
+        assertEquals(2 * UploadBufferPool.CHUNK_SIZE, pool.getPooledBytes());
+        assertEquals(3 * UploadBufferPool.CHUNK_SIZE, stats.getUploadBufferAllocatedBytes());
+    }
+
+    public void testPoolingDisabled() throws IOException {
+        OssStats stats = new OssStats();
+        UploadBufferPool pool = new UploadBufferPool(0, stats);
+        for (int i = 0; i < 2; i++) {
+            pool.read(new ByteArrayInputStream(new byte[10]), 10).close();
+        }
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(0, stats.getUploadBufferReusedBytes());
+        assertEquals(2 * UploadBufferPool.CHUNK_SIZE, stats.getUploadBufferAllocatedBytes());
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Streams.copy(stream, outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.ObjectMetadata;
+import org.elasticsearch.aliyun.oss.blobstore.MockOssService;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests asynchronous requests sent with a blocking client, at most a bounded number at a time.
+ */
+public class BoundedAsyncOssServiceTest extends ESTestCase {
+
+    public void testInFlightRequestsBounded() throws Exception {
+        int maxInFlightRequests = randomIntBetween(1, 4);
+        int requests = randomIntBetween(maxInFlightRequests + 1, 20);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        MockOssService client = new MockOssService() {
+            @Override
+            public ObjectMetadata getObjectMetadata(String bucketName, String key)
+                throws OSSException, ClientException {
+                maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return new ObjectMetadata();
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            BoundedAsyncOssService service = new BoundedAsyncOssService(client, executor, maxInFlightRequests);
+            List<CompletableFuture<ObjectMetadata>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(service.getObjectMetadataAsync("bucket", "key-" + i));
+            }
+            assertBusy(() -> assertEquals(maxInFlightRequests, inFlight.get()));
+            assertEquals(maxInFlightRequests, service.getInFlightRequests());
+            assertEquals(requests - maxInFlightRequests, service.getQueuedRequests());
+            assertFalse(futures.get(requests - 1).isDone());
+
+            release.countDown();
+            for (CompletableFuture<ObjectMetadata> future : futures) {
+                assertNotNull(future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(maxInFlightRequests, maxObserved.get());
+            assertEquals(0, service.getInFlightRequests());
+            assertEquals(0, service.getQueuedRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testRequestsWaitingForThreadNotInFlight() throws Exception {
+        int threads = randomIntBetween(1, 3);
+        int maxInFlightRequests = randomIntBetween(threads + 1, 8);
+        int requests = randomIntBetween(maxInFlightRequests + 1, 20);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        MockOssService client = new MockOssService() {
+            @Override
+            public ObjectMetadata getObjectMetadata(String bucketName, String key)
+                throws OSSException, ClientException {
+                running.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return new ObjectMetadata();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            BoundedAsyncOssService service = new BoundedAsyncOssService(client, executor, maxInFlightRequests);
+            List<CompletableFuture<ObjectMetadata>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(service.getObjectMetadataAsync("bucket", "key-" + i));
+            }
+            assertBusy(() -> assertEquals(threads, running.get()));
+            // requests submitted to the busy executor wait for a thread, they are not sent to OSS yet
+            assertEquals(threads, service.getInFlightRequests());
+            assertEquals(requests - threads, service.getQueuedRequests());
+
+            release.countDown();
+            for (CompletableFuture<ObjectMetadata> future : futures) {
+                assertNotNull(future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, service.getInFlightRequests());
+            assertEquals(0, service.getQueuedRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testFailedRequestCompletesExceptionally() throws Exception {
+        MockOssService client = new MockOssService() {
+            @Override
+            public void deleteObject(String bucketName, String key) throws OSSException, ClientException {
+                throw new OSSException("rejected", "AccessDenied", null, null, null, null, null);
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            BoundedAsyncOssService service = new BoundedAsyncOssService(client, executor, 1);
+            ExecutionException e = expectThrows(ExecutionException.class,
+                () -> service.deleteObjectAsync("bucket", "key").get(10, TimeUnit.SECONDS));
+            assertEquals("AccessDenied", ((OSSException)e.getCause()).getErrorCode());
+            // the slot of the failed request is released
+            assertNull(service.deleteObjectAsync("bucket", "other").handle((r, t) -> null).get(10, TimeUnit.SECONDS));
+            assertEquals(0, service.getInFlightRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testRequestsFailOnceExecutorShutDown() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        executor.shutdown();
+        BoundedAsyncOssService service = new BoundedAsyncOssService(new MockOssService(), executor, 2);
+        ExecutionException e = expectThrows(ExecutionException.class,
+            () -> service.getObjectMetadataAsync("bucket", "key").get());
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertEquals(0, service.getInFlightRequests());
+    }
+}
@@ -0,0 +1,187 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.repositories.RepositoryException;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests the routing of requests between endpoints by probe latency and failures.
+ */
+public class EndpointRouterTest extends ESTestCase {
+
+    /**
+     * Client of an endpoint whose probes take a set time and whose requests fail while it is down
+     */
+    private static final class FakeClient {
+        final String endpoint;
+        volatile long probeMillis;
+        volatile boolean down;
+        final AtomicInteger requests = new AtomicInteger();
+
+        FakeClient(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        String request() {
+            requests.incrementAndGet();
+            if (down) {
+                throw new ClientException("connection refused to " + endpoint);
+            }
+            return endpoint;
+        }
+
+        Void probe() {
+            if (down) {
+                throw new ClientException("connection refused to " + endpoint);
+            }
+            try {
+                Thread.sleep(probeMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, FakeClient> clients = new ConcurrentHashMap<>();
+
+    private EndpointRouter<FakeClient> router(String... endpoints) {
+        return new EndpointRouter<>(Arrays.asList(endpoints), endpoint -> {
+            FakeClient client = new FakeClient(endpoint);
+            clients.put(endpoint, client);
+            return client;
+        }, FakeClient::probe, TimeValue.ZERO);
+    }
+
+    public void testFirstEndpointPreferredOnTies() {
+        EndpointRouter<FakeClient> router = router("vpc", "internet");
+        clients.get("vpc").probeMillis = 30;
+        clients.get("internet").probeMillis = 30;
+        router.probe();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("vpc", router.execute(FakeClient::request, true));
+        }
+        assertEquals(0, clients.get("internet").requests.get());
+    }
+
+    public void testSwitchesOnlyToClearlyFasterEndpoint() {
+        EndpointRouter<FakeClient> router = router("vpc", "internet");
+        clients.get("vpc").probeMillis = 40;
+        clients.get("internet").probeMillis = 36;
+        router.probe();
+        // slightly faster is not worth a switch
+        assertEquals("vpc", router.execute(FakeClient::request, true));
+
+        clients.get("vpc").probeMillis = 100;
+        for (int i = 0; i < 10; i++) {
+            router.probe();
+        }
+        assertEquals("internet", router.execute(FakeClient::request, true));
+        assertTrue(router.getEndpoints().get(0).getLatencyMillis() > router.getEndpoints().get(1).getLatencyMillis());
+    }
+
+    public void testFailingEndpointSkippedAndRequestsFailedOver() {
+        EndpointRouter<FakeClient> router = router("vpc", "internet");
+        clients.get("vpc").down = true;
+        assertEquals("internet", router.execute(FakeClient::request, true));
+        assertEquals(1, clients.get("vpc").requests.get());
+
+        // the failure alone is enough to move traffic to the other endpoint
+        assertEquals("internet", router.execute(FakeClient::request, true));
+        assertEquals(1, clients.get("vpc").requests.get());
+
+        for (int i = 0; i < EndpointRouter.MAX_CONSECUTIVE_FAILURES; i++) {
+            router.probe();
+        }
+        assertTrue(router.getEndpoints().get(0).isSkipped());
+
+        clients.get("vpc").down = false;
+        router.probe();
+        assertFalse(router.getEndpoints().get(0).isSkipped());
+    }
+
+    public void testRequestsWithoutFailoverRethrown() {
+        EndpointRouter<FakeClient> router = router("vpc", "internet");
+        clients.get("vpc").down = true;
+        expectThrows(ClientException.class, () -> router.execute(FakeClient::request, false));
+        assertEquals(0, clients.get("internet").requests.get());
+    }
+
+    public void testConcurrentFailuresAndRecoveryCounted() throws Exception {
+        EndpointRouter<FakeClient> router = router("vpc");
+        EndpointRouter.Endpoint<FakeClient> endpoint = router.getEndpoints().get(0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    endpoint.onFailure(TimeValue.timeValueSeconds(30).nanos());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(endpoint.isSkipped());
+        assertTrue(endpoint.getErrorRate() > 0.99);
+
+        // successes of a healthy endpoint decay its error rate down to zero
+        for (int i = 0; i < 100; i++) {
+            assertEquals("vpc", router.execute(FakeClient::request, true));
+        }
+        assertFalse(endpoint.isSkipped());
+        assertEquals(0, endpoint.getErrorRate(), 0);
+    }
+
+    public void testErrorResponsesAreNotEndpointFailures() {
+        EndpointRouter<FakeClient> router = router("vpc", "internet");
+        for (int i = 0; i < EndpointRouter.MAX_CONSECUTIVE_FAILURES * 2; i++) {
+            expectThrows(OSSException.class, () -> router.execute(client -> {
+                client.request();
+                throw new OSSException("not found", "NoSuchKey", null, null, null, null, null);
+            }, true));
+        }
+        assertFalse(router.getEndpoints().get(0).isSkipped());
+        assertEquals(0, router.getEndpoints().get(0).getErrorRate(), 0);
+        assertEquals(0, clients.get("internet").requests.get());
+        assertTrue(EndpointRouter.isEndpointFailure(
+            new OSSException("internal error", "InternalError", null, null, null, null, null)));
+    }
+
+    public void testEndpointsFromSettings() {
+        List<String> endpoints = OssStorageClient.endpoints(new RepositoryMetaData("repo", "oss", Settings.builder()
+            .put(OssClientSettings.ENDPOINT.getKey(), "oss-cn-hangzhou-internal.aliyuncs.com")
+            .putList(OssClientSettings.ENDPOINTS.getKey(), "oss-cn-hangzhou-internal.aliyuncs.com",
+                "oss-cn-hangzhou.aliyuncs.com")
+            .build()));
+        assertEquals(Arrays.asList("oss-cn-hangzhou-internal.aliyuncs.com", "oss-cn-hangzhou.aliyuncs.com"),
+            endpoints);
+
+        expectThrows(RepositoryException.class,
+            () -> OssStorageClient.endpoints(new RepositoryMetaData("repo", "oss", Settings.EMPTY)));
+        assertEquals(Collections.singletonList("a"), OssStorageClient.endpoints(new RepositoryMetaData("repo", "oss",
+            Settings.builder().putList(OssClientSettings.ENDPOINTS.getKey(), "a").build())));
+    }
+
+    public void testProbesScheduled() throws Exception {
+        AtomicInteger probes = new AtomicInteger();
+        EndpointRouter<FakeClient> router = new EndpointRouter<>(Arrays.asList("vpc", "internet"), FakeClient::new,
+            client -> probes.incrementAndGet(), TimeValue.timeValueMillis(10));
+        try {
+            assertBusy(() -> assertTrue(probes.get() >= 4));
+        } finally {
+            router.close();
+        }
+    }
+}
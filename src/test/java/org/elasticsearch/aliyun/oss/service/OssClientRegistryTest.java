@@ -0,0 +1,42 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests clients shared between repositories.
+ */
+public class OssClientRegistryTest extends ESTestCase {
+
+    private static RepositoryMetaData repository(String name, String endpoint, String accessKeyId) {
+        return new RepositoryMetaData(name, "oss", Settings.builder()
+            .put(OssClientSettings.ENDPOINT.getKey(), endpoint)
+            .put(OssClientSettings.ACCESS_KEY_ID.getKey(), accessKeyId)
+            .put(OssClientSettings.SECRET_ACCESS_KEY.getKey(), "secret")
+            .build());
+    }
+
+    public void testClientSharedUntilLastRelease() throws Exception {
+        try (OssClientRegistry registry = new OssClientRegistry()) {
+            OssService first = registry.acquire(repository("first", "http://oss-a.example.com", "ak"));
+            OssService second = registry.acquire(repository("second", "http://oss-a.example.com", "ak"));
+            assertEquals(1, registry.size());
+            OssService otherEndpoint = registry.acquire(repository("third", "http://oss-b.example.com", "ak"));
+            OssService otherCredentials = registry.acquire(repository("fourth", "http://oss-a.example.com", "ak2"));
+            assertEquals(3, registry.size());
+
+            first.shutdown();
+            first.shutdown();
+            assertEquals(3, registry.size());
+            second.shutdown();
+            assertEquals(2, registry.size());
+            otherEndpoint.shutdown();
+            otherCredentials.shutdown();
+            assertEquals(0, registry.size());
+
+            registry.acquire(repository("first", "http://oss-a.example.com", "ak")).shutdown();
+            assertEquals(0, registry.size());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests the thread pools of the plugin and the private executors of stores created outside of a node.
+ */
+public class OssExecutorsTest extends ESTestCase {
+
+    public void testThreadPoolsRegistered() {
+        Settings settings = Settings.builder()
+            .put("node.name", "oss-executors-test")
+            .put("thread_pool." + OssExecutors.TRANSFER_THREAD_POOL_NAME + ".size", 3)
+            .put("thread_pool." + OssExecutors.METADATA_THREAD_POOL_NAME + ".queue_size", 100)
+            .build();
+        ThreadPool threadPool = new ThreadPool(settings,
+            OssExecutors.getExecutorBuilders(settings).toArray(new ExecutorBuilder<?>[0]));
+        try {
+            ThreadPool.Info transfer = threadPool.info(OssExecutors.TRANSFER_THREAD_POOL_NAME);
+            assertEquals(ThreadPool.ThreadPoolType.FIXED, transfer.getThreadPoolType());
+            assertEquals(3, transfer.getMax());
+            assertEquals(100, threadPool.info(OssExecutors.METADATA_THREAD_POOL_NAME).getQueueSize().singles());
+
+            boolean transferStats = false;
+            boolean metadataStats = false;
+            for (ThreadPoolStats.Stats stats : threadPool.stats()) {
+                transferStats |= stats.getName().equals(OssExecutors.TRANSFER_THREAD_POOL_NAME);
+                metadataStats |= stats.getName().equals(OssExecutors.METADATA_THREAD_POOL_NAME);
+            }
+            assertTrue(transferStats);
+            assertTrue(metadataStats);
+
+            OssExecutors executors = OssExecutors.of(threadPool);
+            executors.close();
+            assertFalse(executors.transfer().isShutdown());
+            assertFalse(executors.metadata().isShutdown());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    public void testPrivateExecutorsShutDownOnClose() {
+        OssExecutors executors = OssExecutors.newPrivate();
+        executors.close();
+        assertTrue(executors.transfer().isShutdown());
+        assertTrue(executors.metadata().isShutdown());
+    }
+}
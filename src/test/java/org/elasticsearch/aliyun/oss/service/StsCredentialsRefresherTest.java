@@ -0,0 +1,162 @@
+package org.elasticsearch.aliyun.oss.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import com.aliyun.oss.common.auth.DefaultCredentials;
+import org.elasticsearch.aliyun.oss.service.exception.CreateStsOssClientException;
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Tests the renewal of STS credentials before they expire and the backoff of failed renewals.
+ */
+public class StsCredentialsRefresherTest extends ESTestCase {
+
+    /**
+     * Scheduler recording the delays of the renewals instead of running them, the test runs them
+     */
+    private static final class ManualScheduler extends ScheduledThreadPoolExecutor {
+        final List<Long> delaysMillis = new ArrayList<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            if (isShutdown()) {
+                throw new RejectedExecutionException("scheduler is shut down");
+            }
+            delaysMillis.add(unit.toMillis(delay));
+            return null;
+        }
+
+        long lastDelayMillis() {
+            return delaysMillis.get(delaysMillis.size() - 1);
+        }
+    }
+
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final AtomicLong now = new AtomicLong(randomLongBetween(0, Long.MAX_VALUE / 2));
+    /**
+     * Tokens handed out by the fake metadata service, renewals fail once it runs out of tokens
+     */
+    private final Deque<OssStorageClient.StsToken> tokens = new ArrayDeque<>();
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final DefaultCredentialProvider provider = new DefaultCredentialProvider(credentials("initial"));
+
+    private static DefaultCredentials credentials(String accessKeyId) {
+        return new DefaultCredentials(accessKeyId, "secret", "token");
+    }
+
+    private OssStorageClient.StsToken token(String accessKeyId, long validForMillis) {
+        return new OssStorageClient.StsToken(credentials(accessKeyId), new Date(now.get() + validForMillis));
+    }
+
+    private StsCredentialsRefresher refresher(OssStorageClient.StsToken initialToken) {
+        return new StsCredentialsRefresher(() -> {
+            OssStorageClient.StsToken token = tokens.poll();
+            if (token == null) {
+                throw new CreateStsOssClientException("metadata service unavailable");
+            }
+            return token;
+        }, provider, initialToken, scheduler, now::get);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testRenewedBeforeExpiration() {
+        StsCredentialsRefresher refresher = refresher(token("initial", HOUR_MS));
+        refresher.start();
+        assertEquals(HOUR_MS - StsCredentialsRefresher.REFRESH_MARGIN_MS, scheduler.lastDelayMillis());
+
+        now.addAndGet(scheduler.lastDelayMillis());
+        OssStorageClient.StsToken renewed = token("renewed", HOUR_MS);
+        tokens.add(renewed);
+        refresher.refresh();
+        assertEquals("renewed", provider.getCredentials().getAccessKeyId());
+        assertEquals(renewed.expiration, refresher.getExpiration());
+        assertEquals(now.get(), refresher.getLastRefreshTime());
+        assertEquals(1, refresher.getRefreshCount());
+        assertEquals(0, refresher.getFailedAttempts());
+        assertNull(refresher.getLastFailure());
+        assertEquals(HOUR_MS - StsCredentialsRefresher.REFRESH_MARGIN_MS, scheduler.lastDelayMillis());
+        assertFalse(refresher.isExpired());
+    }
+
+    public void testFailedRenewalsRetriedWithJitteredBackoff() {
+        StsCredentialsRefresher refresher = refresher(token("initial", StsCredentialsRefresher.REFRESH_MARGIN_MS));
+        long lastRefreshTime = refresher.getLastRefreshTime();
+        int failures = randomIntBetween(1, 10);
+        for (int attempt = 1; attempt <= failures; attempt++) {
+            refresher.refresh();
+            long backoff = Math.min(StsCredentialsRefresher.MAX_RETRY_DELAY_MS,
+                StsCredentialsRefresher.MIN_RETRY_DELAY_MS << (attempt - 1));
+            assertTrue(scheduler.lastDelayMillis() >= backoff / 2);
+            assertTrue(scheduler.lastDelayMillis() <= backoff);
+            assertEquals(attempt, refresher.getFailedAttempts());
+            assertTrue(refresher.getLastFailure() instanceof CreateStsOssClientException);
+            // the credentials in use are kept until a renewal succeeds
+            assertEquals("initial", provider.getCredentials().getAccessKeyId());
+            assertEquals(lastRefreshTime, refresher.getLastRefreshTime());
+            now.addAndGet(scheduler.lastDelayMillis());
+        }
+        assertEquals(failures, refresher.getRefreshCount());
+        // the retries fit in the refresh margin, the token in use has not expired yet
+        assertFalse(refresher.isExpired());
+
+        tokens.add(token("renewed", HOUR_MS));
+        refresher.refresh();
+        assertEquals("renewed", provider.getCredentials().getAccessKeyId());
+        assertEquals(0, refresher.getFailedAttempts());
+        assertNull(refresher.getLastFailure());
+        assertEquals(HOUR_MS - StsCredentialsRefresher.REFRESH_MARGIN_MS, scheduler.lastDelayMillis());
+    }
+
+    public void testRetryDelayCapped() {
+        StsCredentialsRefresher refresher = refresher(token("initial", 0));
+        for (int attempt = 0; attempt < 30; attempt++) {
+            refresher.refresh();
+            assertTrue(scheduler.lastDelayMillis() <= StsCredentialsRefresher.MAX_RETRY_DELAY_MS);
+        }
+        assertTrue(scheduler.lastDelayMillis() >= StsCredentialsRefresher.MAX_RETRY_DELAY_MS / 2);
+    }
+
+    public void testPrematureRenewalRetried() {
+        StsCredentialsRefresher refresher = refresher(token("initial", StsCredentialsRefresher.REFRESH_MARGIN_MS));
+        // the metadata service still hands out a token within the refresh margin
+        tokens.add(token("same", StsCredentialsRefresher.REFRESH_MARGIN_MS - 1));
+        refresher.refresh();
+        assertEquals("same", provider.getCredentials().getAccessKeyId());
+        assertNull(refresher.getLastFailure());
+        assertEquals(1, refresher.getFailedAttempts());
+        assertTrue(scheduler.lastDelayMillis() <= StsCredentialsRefresher.MIN_RETRY_DELAY_MS);
+    }
+
+    public void testCloseStopsRenewals() {
+        StsCredentialsRefresher refresher = refresher(token("initial", HOUR_MS));
+        refresher.start();
+        assertEquals(1, scheduler.delaysMillis.size());
+        refresher.close();
+        assertTrue(scheduler.isShutdown());
+
+        // a renewal running while the refresher closes does not schedule the next one
+        tokens.add(token("renewed", HOUR_MS));
+        refresher.refresh();
+        assertEquals(1, scheduler.delaysMillis.size());
+    }
+}
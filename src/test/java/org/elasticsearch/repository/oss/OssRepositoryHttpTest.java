@@ -0,0 +1,53 @@
+package org.elasticsearch.repository.oss;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.aliyun.oss.blobstore.OssHttpFixture;
+import org.elasticsearch.aliyun.oss.service.OssClientSettings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.plugin.repository.oss.OssRepositoryPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.repositories.blobstore.ESBlobStoreRepositoryIntegTestCase;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+
+/**
+ * Runs the repository tests with the OSS client over HTTP, against a local {@link OssHttpFixture}.
+ */
+public class OssRepositoryHttpTest extends ESBlobStoreRepositoryIntegTestCase {
+    private static OssHttpFixture fixture;
+
+    @BeforeClass
+    public static void startFixture() throws IOException {
+        fixture = new OssHttpFixture();
+    }
+
+    @AfterClass
+    public static void stopFixture() throws IOException {
+        fixture.close();
+        fixture = null;
+    }
+
+    @Override
+    protected Collection<Class<? extends Plugin>> nodePlugins() {
+        return Collections.singletonList(OssRepositoryPlugin.class);
+    }
+
+    @Override
+    protected void createTestRepository(String name, boolean verify) {
+        assertAcked(
+            client().admin().cluster().preparePutRepository(name).setType(OssRepository.TYPE).setVerify(verify)
+                .setSettings(fixture.clientSettings()
+                    .put(OssClientSettings.BUCKET.getKey(), "fixture")
+                    .put(OssClientSettings.BASE_PATH.getKey(), StringUtils.EMPTY)
+                    .put(OssClientSettings.COMPRESS.getKey(), randomBoolean())
+                    .put(OssClientSettings.MULTIPART_UPLOAD_THRESHOLD.getKey(), randomIntBetween(100, 1000),
+                        ByteSizeUnit.KB)
+                    .put(OssClientSettings.MULTIPART_PART_SIZE.getKey(), 100, ByteSizeUnit.KB)));
+    }
+}